@@ -50,6 +50,14 @@ public class SettingsManager {
         if (!ocrLang.isBlank()) {
             System.setProperty("OCR_LANGUAGE", ocrLang);
         }
+        String deeplUrl = props.getProperty("DEEPL_API_URL", "");
+        if (!deeplUrl.isBlank()) {
+            System.setProperty("DEEPL_API_URL", deeplUrl);
+        }
+        String ocrWorkers = props.getProperty("OCR_WORKERS", "");
+        if (!ocrWorkers.isBlank()) {
+            System.setProperty("OCR_WORKERS", ocrWorkers);
+        }
     }
 }
 
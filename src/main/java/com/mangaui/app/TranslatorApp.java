@@ -39,6 +39,7 @@ public class TranslatorApp {
         tabs.setFont(new Font("Segoe UI", Font.PLAIN, 12));
 
         MangaOcrService ocrService = new MangaOcrService();
+        ocrService.warmUp();
         DeepLClient deepLClient = new DeepLClient();
 
         debugPanel = new DebugPanel();
@@ -0,0 +1,62 @@
+package com.mangaui.services;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Splits {@code rows} rows into contiguous horizontal bands and runs a task per band, on a ForkJoinPool when
+ * one is given and serially otherwise. Band b covers rows [start(b), end(b)).
+ */
+final class Bands {
+    interface BandTask {
+        void run(int band, int from, int to);
+    }
+
+    private final int rows;
+    private final int count;
+    private final ForkJoinPool pool;
+
+    private Bands(int rows, int count, ForkJoinPool pool) {
+        this.rows = rows;
+        this.count = count;
+        this.pool = pool;
+    }
+
+    static Bands serial(int rows) {
+        return new Bands(rows, 1, null);
+    }
+
+    /** About two bands per pool thread, but never bands thinner than {@code minRows}. */
+    static Bands split(int rows, int minRows, ForkJoinPool pool) {
+        if (pool == null) return serial(rows);
+        int count = Math.max(1, Math.min(pool.getParallelism() * 2, rows / Math.max(1, minRows)));
+        return new Bands(rows, count, count > 1 ? pool : null);
+    }
+
+    /** Same number of bands and pool, over a different number of rows. */
+    Bands resize(int newRows) {
+        int c = Math.max(1, Math.min(count, newRows));
+        return new Bands(newRows, c, c > 1 ? pool : null);
+    }
+
+    int count() { return count; }
+
+    int start(int band) { return (int) ((long) band * rows / count); }
+
+    int end(int band) { return (int) ((long) (band + 1) * rows / count); }
+
+    void forEach(BandTask task) {
+        if (pool == null) {
+            for (int b = 0; b < count; b++) task.run(b, start(b), end(b));
+            return;
+        }
+        List<ForkJoinTask<?>> tasks = new ArrayList<>(count);
+        for (int b = 0; b < count; b++) {
+            final int band = b;
+            tasks.add(pool.submit(() -> task.run(band, start(band), end(band))));
+        }
+        for (ForkJoinTask<?> t : tasks) t.join();
+    }
+}
@@ -0,0 +1,146 @@
+package com.mangaui.services;
+
+import java.util.Arrays;
+
+/**
+ * Binary image packed 64 pixels per {@code long}, one row after another.
+ * Bit {@code x & 63} of word {@code x >> 6} holds pixel x of a row. Bits past the
+ * row width are always kept clear so word-wise operations never leak across rows.
+ */
+public final class BitMask {
+    private int width;
+    private int height;
+    private int wordsPerRow;
+    private long[] words = new long[0];
+
+    /** Resizes the mask and clears it, reusing the backing array when it is large enough. */
+    public void reset(int width, int height) {
+        this.width = width;
+        this.height = height;
+        this.wordsPerRow = (width + 63) >>> 6;
+        int needed = wordsPerRow * height;
+        if (words.length < needed) {
+            words = new long[needed];
+        } else {
+            Arrays.fill(words, 0, needed, 0L);
+        }
+    }
+
+    public int width() { return width; }
+
+    public int height() { return height; }
+
+    public int wordsPerRow() { return wordsPerRow; }
+
+    long[] words() { return words; }
+
+    int rowOffset(int y) { return y * wordsPerRow; }
+
+    public boolean get(int x, int y) {
+        return (words[y * wordsPerRow + (x >>> 6)] & (1L << x)) != 0;
+    }
+
+    public void set(int x, int y) {
+        words[y * wordsPerRow + (x >>> 6)] |= 1L << x;
+    }
+
+    public void clear(int x, int y) {
+        words[y * wordsPerRow + (x >>> 6)] &= ~(1L << x);
+    }
+
+    /** Sets pixels x1..x2 (inclusive) of row y. */
+    public void setRange(int y, int x1, int x2) {
+        applyRange(y, x1, x2, true);
+    }
+
+    /** Clears pixels x1..x2 (inclusive) of row y. */
+    public void clearRange(int y, int x1, int x2) {
+        applyRange(y, x1, x2, false);
+    }
+
+    private void applyRange(int y, int x1, int x2, boolean value) {
+        if (x1 > x2) return;
+        int base = y * wordsPerRow;
+        int w1 = x1 >>> 6;
+        int w2 = x2 >>> 6;
+        for (int i = w1; i <= w2; i++) {
+            long m = -1L;
+            if (i == w1) m &= -1L << x1;
+            if (i == w2) m &= -1L >>> (63 - (x2 & 63));
+            if (value) {
+                words[base + i] |= m;
+            } else {
+                words[base + i] &= ~m;
+            }
+        }
+    }
+
+    /** Copies row {@code fromRow} over row {@code toRow}. */
+    void copyRow(int fromRow, int toRow) {
+        System.arraycopy(words, fromRow * wordsPerRow, words, toRow * wordsPerRow, wordsPerRow);
+    }
+
+    /** Number of set pixels in row y between x1 and x2, both inclusive. */
+    public int countRow(int y, int x1, int x2) {
+        if (x1 > x2) return 0;
+        int base = y * wordsPerRow;
+        int w1 = x1 >>> 6;
+        int w2 = x2 >>> 6;
+        long first = -1L << x1;
+        long last = -1L >>> (63 - (x2 & 63));
+        if (w1 == w2) {
+            return Long.bitCount(words[base + w1] & first & last);
+        }
+        int count = Long.bitCount(words[base + w1] & first);
+        for (int i = w1 + 1; i < w2; i++) {
+            count += Long.bitCount(words[base + i]);
+        }
+        return count + Long.bitCount(words[base + w2] & last);
+    }
+
+    /** Number of set pixels inside the rectangle [x1..x2] x [y1..y2], bounds inclusive. */
+    public int count(int x1, int y1, int x2, int y2) {
+        int count = 0;
+        for (int y = y1; y <= y2; y++) {
+            count += countRow(y, x1, x2);
+        }
+        return count;
+    }
+
+    /** Mask for the valid bits of the last word in a row. */
+    long tailMask() {
+        int rem = width & 63;
+        return rem == 0 ? -1L : (1L << rem) - 1;
+    }
+
+    /**
+     * ORs {@code n} words of {@code s}, moved by {@code shift} pixels, into {@code d}. A positive shift moves
+     * pixels towards larger x; pixels moved outside the row are dropped. Safe to call in place with
+     * {@code s == d}: words are visited in the direction that reads every source word before it is overwritten.
+     */
+    static void orShifted(long[] s, int sOff, long[] d, int dOff, int n, int shift, long tail) {
+        if (shift == 0) {
+            for (int i = 0; i < n; i++) d[dOff + i] |= s[sOff + i];
+            return;
+        }
+        if (shift > 0) {
+            int ws = shift >>> 6;
+            int bs = shift & 63;
+            for (int i = n - 1; i >= ws; i--) {
+                long v = s[sOff + i - ws] << bs;
+                if (bs != 0 && i - ws - 1 >= 0) v |= s[sOff + i - ws - 1] >>> (64 - bs);
+                d[dOff + i] |= v;
+            }
+        } else {
+            int k = -shift;
+            int ws = k >>> 6;
+            int bs = k & 63;
+            for (int i = 0; i + ws < n; i++) {
+                long v = s[sOff + i + ws] >>> bs;
+                if (bs != 0 && i + ws + 1 < n) v |= s[sOff + i + ws + 1] << (64 - bs);
+                d[dOff + i] |= v;
+            }
+        }
+        d[dOff + n - 1] &= tail;
+    }
+}
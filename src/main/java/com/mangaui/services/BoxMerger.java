@@ -0,0 +1,178 @@
+package com.mangaui.services;
+
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Merges boxes that lie within {@code pad} pixels of each other until no two remaining boxes are that close.
+ *
+ * The result is the same as repeatedly sweeping all pairs and unioning close ones until nothing changes:
+ * that fixed point is the finest grouping whose bounding boxes are pairwise apart, and the groups come out
+ * ordered by their first input box. Instead of all-pairs sweeps, each round buckets the current boxes in a
+ * uniform grid, unions every close pair it finds among grid neighbours, and replaces each group by its
+ * bounding box. Almost all merging happens in the first round; later rounds only pick up pairs that became
+ * close because a group's bounding box grew, and they run over far fewer boxes.
+ */
+public final class BoxMerger {
+    private BoxMerger() {
+    }
+
+    public static List<Rectangle> merge(List<Rectangle> boxes, int pad) {
+        Rectangle[] current = new Rectangle[boxes.size()];
+        for (int i = 0; i < current.length; i++) {
+            current[i] = new Rectangle(boxes.get(i));
+        }
+        while (current.length > 1) {
+            int[] parent = unionClosePairs(current, pad);
+            int groups = 0;
+            for (int i = 0; i < current.length; i++) {
+                if (find(parent, i) == i) groups++;
+            }
+            if (groups == current.length) break;
+            // Roots are the lowest index of their group, so the next round keeps first-box order
+            Rectangle[] next = new Rectangle[groups];
+            int[] slot = new int[current.length];
+            int k = 0;
+            for (int i = 0; i < current.length; i++) {
+                int root = parent[i];
+                if (root == i) {
+                    slot[i] = k;
+                    next[k++] = current[i];
+                } else {
+                    next[slot[root]] = next[slot[root]].union(current[i]);
+                }
+            }
+            current = next;
+        }
+        List<Rectangle> result = new ArrayList<>(current.length);
+        for (Rectangle r : current) result.add(r);
+        return result;
+    }
+
+    // One round: union-find over every close pair, found through a uniform grid. Every entry of the returned
+    // parent array points straight at its root, and a root is always the lowest index of its group.
+    private static int[] unionClosePairs(Rectangle[] box, int pad) {
+        int n = box.length;
+        int[] parent = new int[n];
+        int minX = Integer.MAX_VALUE, minY = Integer.MAX_VALUE, maxX = Integer.MIN_VALUE, maxY = Integer.MIN_VALUE;
+        long sizeSum = 0;
+        for (int i = 0; i < n; i++) {
+            Rectangle r = box[i];
+            parent[i] = i;
+            minX = Math.min(minX, r.x);
+            minY = Math.min(minY, r.y);
+            maxX = Math.max(maxX, r.x + r.width);
+            maxY = Math.max(maxY, r.y + r.height);
+            sizeSum += Math.max(r.width, r.height);
+        }
+
+        // Cells about the size of an average box keep both the per-cell lists and the cells per box short
+        int cell = (int) Math.max(16, sizeSum / n + 2L * pad);
+        int originX = minX - pad;
+        int originY = minY - pad;
+        int cols = (maxX + pad - originX) / cell + 1;
+        int rows = (maxY + pad - originY) / cell + 1;
+        while ((long) cols * rows > 4L * n + 64) {
+            cell *= 2;
+            cols = (maxX + pad - originX) / cell + 1;
+            rows = (maxY + pad - originY) / cell + 1;
+        }
+
+        Grid grid = new Grid(cols, rows, n);
+        int[] seen = new int[n];
+        Arrays.fill(seen, -1);
+        for (int i = 0; i < n; i++) {
+            // Query before inserting so every pair is tested once, from its higher index
+            int[] range = cellRange(box[i], pad, originX, originY, cell, cols, rows);
+            for (int cy = range[1]; cy <= range[3]; cy++) {
+                for (int cx = range[0]; cx <= range[2]; cx++) {
+                    for (int e = grid.head[cy * cols + cx]; e >= 0; e = grid.next[e]) {
+                        int j = grid.item[e];
+                        if (seen[j] == i) continue;
+                        seen[j] = i;
+                        if (isClose(box[i], box[j], pad)) union(parent, i, j);
+                    }
+                }
+            }
+            grid.insert(i, cellRange(box[i], 0, originX, originY, cell, cols, rows));
+        }
+        for (int i = 0; i < n; i++) {
+            parent[i] = find(parent, i);
+        }
+        return parent;
+    }
+
+    // Same test as padding {@code a} by {@code pad} on every side and checking for overlap with {@code b}
+    static boolean isClose(Rectangle a, Rectangle b, int pad) {
+        Rectangle ap = new Rectangle(a.x - pad, a.y - pad, a.width + 2 * pad, a.height + 2 * pad);
+        return ap.intersects(b);
+    }
+
+    private static void union(int[] parent, int a, int b) {
+        int ra = find(parent, a);
+        int rb = find(parent, b);
+        if (ra < rb) {
+            parent[rb] = ra;
+        } else if (rb < ra) {
+            parent[ra] = rb;
+        }
+    }
+
+    private static int find(int[] parent, int a) {
+        int root = a;
+        while (parent[root] != root) root = parent[root];
+        while (parent[a] != root) {
+            int next = parent[a];
+            parent[a] = root;
+            a = next;
+        }
+        return root;
+    }
+
+    private static int[] cellRange(Rectangle r, int pad, int originX, int originY, int cell, int cols, int rows) {
+        int x1 = clamp((r.x - pad - originX) / cell, cols);
+        int y1 = clamp((r.y - pad - originY) / cell, rows);
+        int x2 = clamp((r.x + r.width + pad - originX) / cell, cols);
+        int y2 = clamp((r.y + r.height + pad - originY) / cell, rows);
+        return new int[] {x1, y1, x2, y2};
+    }
+
+    private static int clamp(int v, int size) {
+        return v < 0 ? 0 : Math.min(v, size - 1);
+    }
+
+    // Per-cell singly linked lists of box ids in flat arrays.
+    private static final class Grid {
+        final int cols;
+        final int[] head;
+        int[] next;
+        int[] item;
+        int count;
+
+        Grid(int cols, int rows, int expected) {
+            this.cols = cols;
+            head = new int[cols * rows];
+            Arrays.fill(head, -1);
+            next = new int[Math.max(16, expected * 4)];
+            item = new int[next.length];
+        }
+
+        void insert(int id, int[] range) {
+            for (int cy = range[1]; cy <= range[3]; cy++) {
+                for (int cx = range[0]; cx <= range[2]; cx++) {
+                    if (count == next.length) {
+                        next = Arrays.copyOf(next, count * 2);
+                        item = Arrays.copyOf(item, count * 2);
+                    }
+                    int c = cy * cols + cx;
+                    item[count] = id;
+                    next[count] = head[c];
+                    head[c] = count;
+                    count++;
+                }
+            }
+        }
+    }
+}
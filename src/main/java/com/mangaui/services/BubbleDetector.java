@@ -2,212 +2,409 @@ package com.mangaui.services;
 
 import java.awt.Rectangle;
 import java.awt.image.BufferedImage;
-import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.Deque;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
 
 public class BubbleDetector {
+    private static final LuminanceKernel KERNEL = LuminanceKernel.best();
+
+    // All scratch buffers live in the workspace, so a detector is no more thread-safe than its workspace
+    private final DetectorWorkspace workspace;
+    private final BitMask darkMask;
+    private final BitMask lightMask;
+    private final BitMask dilated;
+    private final BitMask dilateScratch;
+    private final BitMask prefixRows;
+    private final BitMask suffixRows;
+    private final ComponentLabeler labeler;
+    private final IntegralImage darkIntegral;
+    private final BitMask coarseDark;
+    private final BitMask coarseLight;
+    private final IntegralImage coarseIntegral;
+    private boolean parallel;
+    private int pyramidFactor = 1;
+    private Bands bands;
+
+    public BubbleDetector() {
+        this(new DetectorWorkspace());
+    }
+
+    /** A detector that works in {@code workspace}, e.g. {@link DetectorWorkspace#forCurrentThread()}. */
+    public BubbleDetector(DetectorWorkspace workspace) {
+        this.workspace = workspace;
+        this.darkMask = workspace.darkMask;
+        this.lightMask = workspace.lightMask;
+        this.dilated = workspace.dilated;
+        this.dilateScratch = workspace.dilateScratch;
+        this.prefixRows = workspace.prefixRows;
+        this.suffixRows = workspace.suffixRows;
+        this.labeler = workspace.labeler;
+        this.darkIntegral = workspace.darkIntegral;
+        this.coarseDark = workspace.coarseDark;
+        this.coarseLight = workspace.coarseLight;
+        this.coarseIntegral = workspace.coarseIntegral;
+    }
+
+    /**
+     * Parallel mode splits the image into horizontal bands and runs thresholding, dilation and labeling per
+     * band on the common ForkJoinPool. Components that cross band seams are stitched back together, so the
+     * boxes are identical to serial mode.
+     */
+    public void setParallel(boolean parallel) {
+        this.parallel = parallel;
+    }
+
+    public boolean isParallel() {
+        return parallel;
+    }
+
+    /**
+     * Coarse-to-fine mode. With a factor of 2 or 4, candidate regions are first found on an image reduced by
+     * that factor, and full-resolution thresholding only runs inside them. Faster on large, sparse captures,
+     * at the cost of occasionally missing or reshaping a box; 1 (the default) disables it.
+     */
+    public void setPyramidFactor(int factor) {
+        if (factor != 1 && factor != 2 && factor != 4) {
+            throw new IllegalArgumentException("Pyramid factor must be 1, 2 or 4: " + factor);
+        }
+        this.pyramidFactor = factor;
+    }
+
+    public int getPyramidFactor() {
+        return pyramidFactor;
+    }
+
     public List<Rectangle> detectBubbles(BufferedImage image) {
         int width = image.getWidth();
         int height = image.getHeight();
-        // Build luminance-based masks with slightly relaxed thresholds
-        boolean[][] darkMask = new boolean[height][width];
-        boolean[][] lightMask = new boolean[height][width];
-        for (int y = 0; y < height; y++) {
-            for (int x = 0; x < width; x++) {
-                int rgb = image.getRGB(x, y);
-                int r = (rgb >> 16) & 0xFF;
-                int g = (rgb >> 8) & 0xFF;
-                int b = rgb & 0xFF;
-                int lum = (int)(0.2126 * r + 0.7152 * g + 0.0722 * b);
-                darkMask[y][x] = lum <= 120;
-                lightMask[y][x] = lum >= 180;
+        List<Rectangle> finalBoxes = detectIn(image, new Rectangle(0, 0, width, height));
+        sortReadingOrder(finalBoxes);
+
+        // Fallback: if no boxes, return the full region minimally padded
+        if (finalBoxes.isEmpty()) {
+            finalBoxes.add(new Rectangle(0, 0, width, height));
+        }
+
+        return finalBoxes;
+    }
+
+    /**
+     * Detects only inside {@code region} of {@code image}, in image coordinates and reading order. The edge
+     * and size filters still judge boxes against the whole image, so a bubble found here is the one a full
+     * detection would find as long as the region covers it with some margin. There is no full-image fallback
+     * box; an empty list means nothing was found in the region.
+     */
+    public List<Rectangle> detectBubbles(BufferedImage image, Rectangle region) {
+        Rectangle r = region.intersection(new Rectangle(0, 0, image.getWidth(), image.getHeight()));
+        if (r.isEmpty()) return new ArrayList<>();
+        BufferedImage sub = image.getSubimage(r.x, r.y, r.width, r.height);
+        List<Rectangle> boxes = detectIn(sub, new Rectangle(-r.x, -r.y, image.getWidth(), image.getHeight()));
+        for (Rectangle box : boxes) box.translate(r.x, r.y);
+        sortReadingOrder(boxes);
+        return boxes;
+    }
+
+    // Sort reading order: top-to-bottom, then left-to-right
+    static void sortReadingOrder(List<Rectangle> boxes) {
+        boxes.sort((r1, r2) -> {
+            int dyv = Integer.compare(r1.y, r2.y);
+            if (Math.abs(r1.y - r2.y) < 20) {
+                return Integer.compare(r1.x, r2.x);
             }
+            return dyv;
+        });
+    }
+
+    // Merged, size-filtered boxes of {@code image}, unsorted. {@code frame} is the whole picture in the
+    // coordinates of {@code image}: the image itself, or the full capture when {@code image} is a sub-image.
+    private List<Rectangle> detectIn(BufferedImage image, Rectangle frame) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        bands = parallel ? Bands.split(height, 64, ForkJoinPool.commonPool()) : Bands.serial(height);
+        workspace.prepare(bands.count(), width);
+        // Build luminance-based masks with slightly relaxed thresholds
+        darkMask.reset(width, height);
+        lightMask.reset(width, height);
+        PixelRows pixels = new PixelRows(image);
+        int f = pyramidFactor;
+        if (f > 1 && width >= 32 * f && height >= 32 * f) {
+            fillMasksCoarseToFine(pixels, f);
+        } else {
+            bands.forEach((b, from, to) -> fillMasks(pixels, b, from, to, 0, width));
         }
+        darkIntegral.build(darkMask, bands);
 
-        List<Rectangle> lightBoxes = detectComponents(lightMask, width, height, 2, 2);
-        List<Rectangle> darkBoxes = detectComponents(darkMask, width, height, 2, 3);
+        List<Rectangle> lightBoxes = detectComponents(lightMask, darkMask, width, height, 2, 2, 500, 15);
+        List<Rectangle> darkBoxes = detectComponents(darkMask, darkMask, width, height, 2, 3, 500, 15);
 
         List<Rectangle> candidates = new ArrayList<>();
-        candidates.addAll(filterBoxes(lightBoxes, darkMask, width, height, width * height));
+        candidates.addAll(filterBoxes(lightBoxes, darkIntegral, frame, 200));
         // Dark pass: filter to text clusters, then expand a bit
-        for (Rectangle r : filterBoxes(darkBoxes, darkMask, width, height, width * height)) {
+        for (Rectangle r : filterBoxes(darkBoxes, darkIntegral, frame, 200)) {
             Rectangle padded = pad(r, 8, width, height);
             candidates.add(padded);
         }
 
         // Merge and suppress overly large boxes (>45% of selection area)
-        List<Rectangle> mergedBoxes = mergeBoxes(candidates);
-        List<Rectangle> finalBoxes = new ArrayList<>();
-        int totalArea = width * height;
-        for (Rectangle r : mergedBoxes) {
+        List<Rectangle> mergedBoxes = BoxMerger.merge(candidates, 8);
+        return suppressLarge(mergedBoxes, frame.width * frame.height);
+    }
+
+    static List<Rectangle> suppressLarge(List<Rectangle> boxes, int totalArea) {
+        List<Rectangle> kept = new ArrayList<>();
+        for (Rectangle r : boxes) {
             double areaFrac = (double) (r.width * r.height) / (double) totalArea;
             if (areaFrac > 0.45) continue;
-            finalBoxes.add(r);
+            kept.add(r);
         }
+        return kept;
+    }
 
-        // Sort reading order: top-to-bottom, then left-to-right
-        finalBoxes.sort((r1, r2) -> {
-            int dyv = Integer.compare(r1.y, r2.y);
-            if (Math.abs(r1.y - r2.y) < 20) {
-                return Integer.compare(r1.x, r2.x);
+    /**
+     * Summed-area table of the dark mask (Rec. 709 luminance at most {@link LuminanceKernel#DARK_MAX}) from the
+     * last {@link #detectBubbles} call, for dark-pixel counts inside boxes without another pass over the
+     * pixels. Read-only outside this package. It lives in the workspace, so the next detection there overwrites
+     * it; after {@link #detectBubbles(BufferedImage, Rectangle)} it covers only that region, in region
+     * coordinates, and in coarse-to-fine mode it is exact only inside the regions of interest.
+     */
+    public IntegralImage darkIntegral() {
+        return darkIntegral;
+    }
+
+    // Thresholds rows [from, to), columns [x0, x1) in a single pass over the pixels. The kernel packs a
+    // whole span into words, which are then OR-ed into the masks at column x0.
+    private void fillMasks(PixelRows pixels, int band, int from, int to, int x0, int x1) {
+        BitMask dark = darkMask;
+        BitMask light = lightMask;
+        int len = x1 - x0;
+        int n = dark.wordsPerRow();
+        long tail = dark.tailMask();
+        int[] row = workspace.pixelRow(band);
+        long[] darkBits = workspace.wordRow(band, DetectorWorkspace.DARK_WORDS);
+        long[] lightBits = workspace.wordRow(band, DetectorWorkspace.LIGHT_WORDS);
+        // The kernel only writes the words covering len pixels; the rest must not carry an earlier span
+        Arrays.fill(darkBits, (len + 63) >>> 6, n, 0L);
+        Arrays.fill(lightBits, (len + 63) >>> 6, n, 0L);
+        for (int y = from; y < to; y++) {
+            pixels.read(y, x0, len, row);
+            KERNEL.classify(row, len, darkBits, lightBits);
+            BitMask.orShifted(darkBits, 0, dark.words(), dark.rowOffset(y), n, x0, tail);
+            BitMask.orShifted(lightBits, 0, light.words(), light.rowOffset(y), n, x0, tail);
+        }
+    }
+
+    // Coarse-to-fine fill. Each f x f block of the reduced image is classified from the middle row of the
+    // block: dark if any sampled pixel is dark (so thin strokes survive), light if most are light. The usual
+    // component and box filters run on the reduced masks with every size threshold scaled by f (areas by
+    // f^2), and the hits, scaled back and padded, become regions of interest. The full-resolution masks get
+    // the reduced masks upsampled everywhere and exact thresholding inside the regions, so a page-sized
+    // background component still looks page-sized and is filtered out as it would be at full resolution.
+    private void fillMasksCoarseToFine(PixelRows pixels, int f) {
+        int width = pixels.width();
+        int height = pixels.height();
+        int cw = (width + f - 1) / f;
+        int ch = (height + f - 1) / f;
+        coarseDark.reset(cw, ch);
+        coarseLight.reset(cw, ch);
+        int[] row = workspace.pixelRow(0);
+        for (int by = 0; by < ch; by++) {
+            pixels.read(Math.min(by * f + f / 2, height - 1), 0, width, row);
+            for (int bx = 0; bx < cw; bx++) {
+                int x0 = bx * f;
+                int x1 = Math.min(width, x0 + f);
+                boolean dark = false;
+                int light = 0;
+                for (int x = x0; x < x1; x++) {
+                    if (LuminanceKernel.isDark(row[x])) dark = true;
+                    if (LuminanceKernel.isLight(row[x])) light++;
+                }
+                if (dark) coarseDark.set(bx, by);
+                if (light * 2 > x1 - x0) coarseLight.set(bx, by);
             }
-            return dyv;
-        });
+        }
 
-        // Fallback: if no boxes, return the full region minimally padded
-        if (finalBoxes.isEmpty()) {
-            finalBoxes.add(new Rectangle(0, 0, width, height));
+        Bands fullBands = bands;
+        bands = Bands.serial(ch);
+        coarseIntegral.build(coarseDark);
+        int minArea = 500 / (f * f);
+        int minSide = 15 / f;
+        List<Rectangle> coarse = new ArrayList<>();
+        coarse.addAll(detectComponents(coarseLight, coarseDark, cw, ch, (4 + f - 1) / f, 1, minArea, minSide));
+        coarse.addAll(detectComponents(coarseDark, coarseDark, cw, ch, (6 + f - 1) / f, 1, minArea, minSide));
+        coarse = filterBoxes(coarse, coarseIntegral, new Rectangle(0, 0, cw, ch), 200 / (f * f));
+        bands = fullBands;
+
+        // Regions of interest at full resolution, padded for dilation, the dark-box padding and block slack
+        int margin = 16 + 2 * f;
+        List<Rectangle> regions = new ArrayList<>();
+        for (Rectangle r : coarse) {
+            int x0 = Math.max(0, r.x * f - margin);
+            int y0 = Math.max(0, r.y * f - margin);
+            int x1 = Math.min(width, (r.x + r.width) * f + margin);
+            int y1 = Math.min(height, (r.y + r.height) * f + margin);
+            regions.add(new Rectangle(x0, y0, x1 - x0, y1 - y0));
         }
+        regions = BoxMerger.merge(regions, 0);
 
-        return finalBoxes;
+        upsample(coarseDark, darkMask, f);
+        upsample(coarseLight, lightMask, f);
+        for (Rectangle r : regions) {
+            for (int y = r.y; y < r.y + r.height; y++) {
+                darkMask.clearRange(y, r.x, r.x + r.width - 1);
+                lightMask.clearRange(y, r.x, r.x + r.width - 1);
+            }
+            fillMasks(pixels, 0, r.y, r.y + r.height, r.x, r.x + r.width);
+        }
     }
 
-    private static List<Rectangle> detectComponents(boolean[][] mask, int width, int height, int radius, int iterations) {
-        boolean[][] dil = dilate(mask, width, height, radius, iterations);
-        boolean[][] visited = new boolean[height][width];
-        List<Rectangle> boxes = new ArrayList<>();
-        int[] dx = new int[] {1, -1, 0, 0, 1, 1, -1, -1};
-        int[] dy = new int[] {0, 0, 1, -1, 1, -1, 1, -1};
-        for (int y = 0; y < height; y++) {
-            for (int x = 0; x < width; x++) {
-                if (!dil[y][x] || visited[y][x]) continue;
-                int minX = x, maxX = x, minY = y, maxY = y;
-                int area = 0;
-                Deque<int[]> stack = new ArrayDeque<>();
-                stack.push(new int[] {x, y});
-                visited[y][x] = true;
-                while (!stack.isEmpty()) {
-                    int[] p = stack.pop();
-                    int cx = p[0];
-                    int cy = p[1];
-                    area++;
-                    if (cx < minX) minX = cx;
-                    if (cx > maxX) maxX = cx;
-                    if (cy < minY) minY = cy;
-                    if (cy > maxY) maxY = cy;
-                    for (int k = 0; k < 8; k++) {
-                        int nx = cx + dx[k];
-                        int ny = cy + dy[k];
-                        if (nx >= 0 && nx < width && ny >= 0 && ny < height) {
-                            if (!visited[ny][nx] && dil[ny][nx]) {
-                                visited[ny][nx] = true;
-                                stack.push(new int[] {nx, ny});
-                            }
-                        }
-                    }
+    private static void upsample(BitMask coarse, BitMask fine, int f) {
+        int width = fine.width();
+        int height = fine.height();
+        long[] words = coarse.words();
+        int n = coarse.wordsPerRow();
+        for (int by = 0; by < coarse.height(); by++) {
+            int y0 = by * f;
+            for (int i = 0; i < n; i++) {
+                long word = words[by * n + i];
+                while (word != 0) {
+                    int bx = (i << 6) + Long.numberOfTrailingZeros(word);
+                    word &= word - 1;
+                    fine.setRange(y0, bx * f, Math.min(width - 1, bx * f + f - 1));
                 }
-                int w = maxX - minX + 1;
-                int h = maxY - minY + 1;
-                if (area < 500) continue;
-                if (w < 15 || h < 15) continue;
-                boxes.add(new Rectangle(minX, minY, w, h));
+            }
+            for (int y = y0 + 1; y < Math.min(height, y0 + f); y++) {
+                fine.copyRow(y0, y);
             }
         }
+    }
+
+    private List<Rectangle> detectComponents(BitMask mask, BitMask dark, int width, int height, int radius, int iterations,
+                                             int minArea, int minSide) {
+        BitMask dil = dilate(mask, width, height, radius, iterations);
+        int count = labeler.label(dil, dark, bands);
+        List<Rectangle> boxes = new ArrayList<>();
+        for (int c = 0; c < count; c++) {
+            int w = labeler.width(c);
+            int h = labeler.height(c);
+            if (labeler.area(c) < minArea) continue;
+            if (w < minSide || h < minSide) continue;
+            boxes.add(new Rectangle(labeler.minX(c), labeler.minY(c), w, h));
+        }
         return boxes;
     }
 
-    private static List<Rectangle> filterBoxes(List<Rectangle> boxes, boolean[][] darkMask, int width, int height, int totalArea) {
+    private static List<Rectangle> filterBoxes(List<Rectangle> boxes, IntegralImage darkIntegral, Rectangle frame, int minDark) {
+        int totalArea = frame.width * frame.height;
         List<Rectangle> filtered = new ArrayList<>();
         for (Rectangle r : boxes) {
             // Remove boxes hugging edges and very large ones
-            boolean touchesLeft = r.x <= 2;
-            boolean touchesRight = r.x + r.width >= width - 3;
-            boolean touchesTop = r.y <= 2;
-            boolean touchesBottom = r.y + r.height >= height - 3;
+            boolean touchesLeft = r.x <= frame.x + 2;
+            boolean touchesRight = r.x + r.width >= frame.x + frame.width - 3;
+            boolean touchesTop = r.y <= frame.y + 2;
+            boolean touchesBottom = r.y + r.height >= frame.y + frame.height - 3;
             if ((touchesLeft && touchesRight) || (touchesTop && touchesBottom)) {
                 if (r.width * r.height > totalArea * 0.5) continue;
             }
             double aspect = (double) r.width / (double) r.height;
             if (aspect < 0.25 || aspect > 6.0) continue;
-            int darkCount = countMask(darkMask, r, width, height);
+            int darkCount = darkIntegral.count(r);
             double darkFrac = (double) darkCount / (double) (r.width * r.height);
-            if (darkCount < 200) continue;
+            if (darkCount < minDark) continue;
             if (darkFrac < 0.01) continue;
             filtered.add(r);
         }
         return filtered;
     }
 
-    private static List<Rectangle> mergeBoxes(List<Rectangle> boxes) {
-        boolean merged;
-        List<Rectangle> working = new ArrayList<>(boxes);
-        do {
-            merged = false;
-            List<Rectangle> next = new ArrayList<>();
-            boolean[] used = new boolean[working.size()];
-            for (int i = 0; i < working.size(); i++) {
-                if (used[i]) continue;
-                Rectangle a = working.get(i);
-                Rectangle accum = new Rectangle(a);
-                for (int j = i + 1; j < working.size(); j++) {
-                    if (used[j]) continue;
-                    Rectangle b = working.get(j);
-                    if (iou(accum, b) > 0.2 || isClose(accum, b, 8)) {
-                        accum = accum.union(b);
-                        used[j] = true;
-                        merged = true;
-                    }
+    // Square-window dilation. Repeating a (2r+1)^2 dilation n times is the same as one pass with radius r*n,
+    // and a square window is separable, so this does a horizontal pass followed by a vertical pass, each
+    // costing the same per pixel at any radius.
+    private BitMask dilate(BitMask src, int width, int height, int radius, int iterations) {
+        int r = radius * iterations;
+        if (r <= 0) return src;
+        dilateRows(src, dilateScratch, width, height, r);
+        dilateColumns(dilateScratch, dilated, width, height, r);
+        return dilated;
+    }
+
+    // Horizontal pass on whole words. A centred window of 2r+1 pixels is a forward window of r+1 pixels
+    // followed by a backward one; each is grown 1, 2, 4, ... pixels wide by OR-ing the row with a shifted
+    // copy of itself and topped up to exactly r+1. O(log r) word operations per 64 pixels.
+    private void dilateRows(BitMask src, BitMask dst, int width, int height, int r) {
+        dst.reset(width, height);
+        int n = src.wordsPerRow();
+        long tail = src.tailMask();
+        long[] s = src.words();
+        long[] d = dst.words();
+        bands.forEach((b, from, to) -> {
+            long[] run = workspace.wordRow(b, DetectorWorkspace.RUN_WORDS);
+            for (int y = from; y < to; y++) {
+                int off = y * n;
+                System.arraycopy(s, off, run, 0, n);
+                growWindow(run, n, r + 1, -1, tail);
+                growWindow(run, n, r + 1, 1, tail);
+                System.arraycopy(run, 0, d, off, n);
+            }
+        });
+    }
+
+    private static void growWindow(long[] run, int n, int window, int direction, long tail) {
+        int len = 1;
+        while (len * 2 <= window) {
+            BitMask.orShifted(run, 0, run, 0, n, direction * len, tail);
+            len *= 2;
+        }
+        if (len < window) {
+            BitMask.orShifted(run, 0, run, 0, n, direction * (window - len), tail);
+        }
+    }
+
+    // Vertical pass using van Herk/Gil-Werman: split the rows (padded by r empty rows on each side) into
+    // blocks of 2r+1, keep running ORs forwards and backwards inside each block, and every output row is
+    // then the OR of one backward and one forward row, whatever the radius. Blocks are independent, so
+    // bands of whole blocks can be processed in parallel.
+    private void dilateColumns(BitMask src, BitMask dst, int width, int height, int r) {
+        int window = 2 * r + 1;
+        int virtualRows = height + 2 * r;
+        int n = src.wordsPerRow();
+        prefixRows.reset(width, virtualRows);
+        suffixRows.reset(width, virtualRows);
+        long[] s = src.words();
+        long[] g = prefixRows.words();
+        long[] h = suffixRows.words();
+        int blocks = (virtualRows + window - 1) / window;
+        bands.resize(blocks).forEach((band, fromBlock, toBlock) -> {
+            int from = fromBlock * window;
+            int to = Math.min(virtualRows, toBlock * window);
+            for (int v = from; v < to; v++) {
+                int row = v - r;
+                int off = v * n;
+                if (row >= 0 && row < height) System.arraycopy(s, row * n, g, off, n);
+                if (v % window != 0) {
+                    for (int i = 0; i < n; i++) g[off + i] |= g[off - n + i];
                 }
-                used[i] = true;
-                next.add(accum);
             }
-            working = next;
-        } while (merged);
-        return working;
-    }
-
-    private static boolean[][] dilate(boolean[][] src, int width, int height, int radius, int iterations) {
-        boolean[][] a = src;
-        for (int it = 0; it < iterations; it++) {
-            boolean[][] b = new boolean[height][width];
-            for (int y = 0; y < height; y++) {
-                for (int x = 0; x < width; x++) {
-                    boolean val = false;
-                    for (int yy = Math.max(0, y - radius); yy <= Math.min(height - 1, y + radius) && !val; yy++) {
-                        for (int xx = Math.max(0, x - radius); xx <= Math.min(width - 1, x + radius); xx++) {
-                            if (a[yy][xx]) { val = true; break; }
-                        }
-                    }
-                    b[y][x] = val;
+            for (int v = to - 1; v >= from; v--) {
+                int row = v - r;
+                int off = v * n;
+                if (row >= 0 && row < height) System.arraycopy(s, row * n, h, off, n);
+                if (v % window != window - 1 && v + 1 < virtualRows) {
+                    for (int i = 0; i < n; i++) h[off + i] |= h[off + n + i];
                 }
             }
-            a = b;
-        }
-        return a;
-    }
-
-    private static double iou(Rectangle a, Rectangle b) {
-        int x1 = Math.max(a.x, b.x);
-        int y1 = Math.max(a.y, b.y);
-        int x2 = Math.min(a.x + a.width, b.x + b.width);
-        int y2 = Math.min(a.y + a.height, b.y + b.height);
-        int iw = Math.max(0, x2 - x1);
-        int ih = Math.max(0, y2 - y1);
-        double inter = (double) iw * ih;
-        if (inter <= 0) return 0.0;
-        double union = (double) a.width * a.height + (double) b.width * b.height - inter;
-        return inter / union;
-    }
-
-    private static boolean isClose(Rectangle a, Rectangle b, int pad) {
-        Rectangle ap = new Rectangle(a.x - pad, a.y - pad, a.width + 2 * pad, a.height + 2 * pad);
-        return ap.intersects(b);
-    }
-
-    private static int countMask(boolean[][] mask, Rectangle r, int width, int height) {
-        int x1 = Math.max(0, r.x);
-        int y1 = Math.max(0, r.y);
-        int x2 = Math.min(width - 1, r.x + r.width - 1);
-        int y2 = Math.min(height - 1, r.y + r.height - 1);
-        int count = 0;
-        for (int y = y1; y <= y2; y++) {
-            for (int x = x1; x <= x2; x++) {
-                if (mask[y][x]) count++;
+        });
+        dst.reset(width, height);
+        long[] d = dst.words();
+        bands.forEach((band, from, to) -> {
+            for (int y = from; y < to; y++) {
+                int out = y * n;
+                int hOff = y * n;
+                int gOff = (y + 2 * r) * n;
+                for (int i = 0; i < n; i++) d[out + i] = h[hOff + i] | g[gOff + i];
             }
-        }
-        return count;
+        });
     }
 
     private static Rectangle pad(Rectangle r, int pad, int width, int height) {
@@ -218,5 +415,3 @@ public class BubbleDetector {
         return new Rectangle(nx, ny, nw, nh);
     }
 }
-
-
@@ -0,0 +1,30 @@
+package com.mangaui.services;
+
+import java.awt.Rectangle;
+
+/** The OCR result for one bubble, delivered as soon as that bubble is done. */
+public final class BubbleResult {
+    private final int index;
+    private final Rectangle box;
+    private final OcrResult result;
+
+    public BubbleResult(int index, Rectangle box, OcrResult result) {
+        this.index = index;
+        this.box = box;
+        this.result = result;
+    }
+
+    /** Position of the bubble in the box list that was passed in. */
+    public int index() { return index; }
+
+    public Rectangle box() { return box; }
+
+    public String text() { return result.text(); }
+
+    public long nanos() { return result.nanos(); }
+
+    @Override
+    public String toString() {
+        return "[" + (index + 1) + "] " + result;
+    }
+}
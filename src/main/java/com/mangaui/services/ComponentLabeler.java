@@ -0,0 +1,252 @@
+package com.mangaui.services;
+
+import java.util.Arrays;
+
+/**
+ * Two-pass, 8-connected component labeling over the runs of a {@link BitMask}.
+ * The first pass collects the horizontal runs of set pixels row by row and unions each run with the
+ * runs it touches in the row above; the second pass resolves every run to its root and accumulates the
+ * per-component statistics. Everything lives in primitive arrays that are reused between calls.
+ *
+ * Components come out in raster order of their first pixel, the same order a top-left to bottom-right
+ * flood fill would find them in. The first pass can run on horizontal bands in parallel; see
+ * {@link #label(BitMask, BitMask, Bands)}.
+ */
+public final class ComponentLabeler {
+    private static final int MIN_X = 0;
+    private static final int MIN_Y = 1;
+    private static final int MAX_X = 2;
+    private static final int MAX_Y = 3;
+    private static final int AREA = 4;
+    private static final int DARK = 5;
+    private static final int FIELDS = 6;
+
+    private int runCount;
+    private int[] runRow = new int[256];
+    private int[] runStart = new int[256];
+    private int[] runEnd = new int[256];
+    private int[] parent = new int[256];
+    private int[] componentId = new int[256];
+    private BandRuns[] bandRuns = new BandRuns[0];
+
+    private int componentCount;
+    private int[] stats = new int[256 * FIELDS];
+
+    /**
+     * Labels the set pixels of {@code mask}. When {@code dark} is non-null, the number of its pixels that fall
+     * inside each component is gathered as well. Returns the number of components found.
+     */
+    public int label(BitMask mask, BitMask dark) {
+        return label(mask, dark, Bands.serial(mask.height()));
+    }
+
+    /**
+     * Same as {@link #label(BitMask, BitMask)}, but runs are collected and unioned band by band (in parallel
+     * when {@code bands} has a pool). Runs that touch across a band seam are then unioned, which gives exactly
+     * the components of a single serial scan.
+     */
+    int label(BitMask mask, BitMask dark, Bands bands) {
+        int count = bands.count();
+        if (bandRuns.length < count) {
+            BandRuns[] grown = new BandRuns[count];
+            System.arraycopy(bandRuns, 0, grown, 0, bandRuns.length);
+            for (int b = bandRuns.length; b < count; b++) grown[b] = new BandRuns();
+            bandRuns = grown;
+        }
+        bands.forEach((b, from, to) -> bandRuns[b].collect(mask, from, to));
+
+        // Concatenate the bands in row order, so run indices are global raster order again
+        runCount = 0;
+        for (int b = 0; b < count; b++) {
+            BandRuns band = bandRuns[b];
+            int offset = runCount;
+            ensureCapacity(offset + band.count);
+            System.arraycopy(band.row, 0, runRow, offset, band.count);
+            System.arraycopy(band.start, 0, runStart, offset, band.count);
+            System.arraycopy(band.end, 0, runEnd, offset, band.count);
+            for (int i = 0; i < band.count; i++) parent[offset + i] = band.parent[i] + offset;
+            if (b > 0) {
+                BandRuns above = bandRuns[b - 1];
+                int aboveOffset = offset - above.count;
+                unionWithRowAbove(aboveOffset + above.lastRowFrom, offset, offset + band.firstRowTo);
+            }
+            runCount += band.count;
+        }
+        gatherStats(dark);
+        return componentCount;
+    }
+
+    public int componentCount() { return componentCount; }
+
+    public int minX(int c) { return stats[c * FIELDS + MIN_X]; }
+
+    public int minY(int c) { return stats[c * FIELDS + MIN_Y]; }
+
+    public int maxX(int c) { return stats[c * FIELDS + MAX_X]; }
+
+    public int maxY(int c) { return stats[c * FIELDS + MAX_Y]; }
+
+    public int width(int c) { return maxX(c) - minX(c) + 1; }
+
+    public int height(int c) { return maxY(c) - minY(c) + 1; }
+
+    public int area(int c) { return stats[c * FIELDS + AREA]; }
+
+    public int darkCount(int c) { return stats[c * FIELDS + DARK]; }
+
+    private void ensureCapacity(int needed) {
+        if (needed <= runRow.length) return;
+        int cap = Math.max(needed, runRow.length * 2);
+        runRow = Arrays.copyOf(runRow, cap);
+        runStart = Arrays.copyOf(runStart, cap);
+        runEnd = Arrays.copyOf(runEnd, cap);
+        parent = Arrays.copyOf(parent, cap);
+        componentId = Arrays.copyOf(componentId, cap);
+    }
+
+    // Runs in consecutive rows are 8-connected when their column ranges overlap after widening by one.
+    // [prevFrom, prevTo) are the runs of the upper row, [prevTo, curTo) those of the row below it.
+    private void unionWithRowAbove(int prevFrom, int prevTo, int curTo) {
+        unionRows(runStart, runEnd, parent, prevFrom, prevTo, curTo);
+    }
+
+    private static void unionRows(int[] start, int[] end, int[] parent, int prevFrom, int prevTo, int curTo) {
+        int p = prevFrom;
+        for (int c = prevTo; c < curTo; c++) {
+            int lo = start[c] - 1;
+            int hi = end[c] + 1;
+            while (p < prevTo && end[p] < lo) p++;
+            for (int q = p; q < prevTo && start[q] <= hi; q++) {
+                union(parent, q, c);
+            }
+        }
+    }
+
+    // Smaller index always wins, so every root is the first run of its component in raster order.
+    private static void union(int[] parent, int a, int b) {
+        int ra = find(parent, a);
+        int rb = find(parent, b);
+        if (ra == rb) return;
+        if (ra < rb) {
+            parent[rb] = ra;
+        } else {
+            parent[ra] = rb;
+        }
+    }
+
+    private static int find(int[] parent, int a) {
+        int root = a;
+        while (parent[root] != root) root = parent[root];
+        while (parent[a] != root) {
+            int next = parent[a];
+            parent[a] = root;
+            a = next;
+        }
+        return root;
+    }
+
+    private void gatherStats(BitMask dark) {
+        componentCount = 0;
+        for (int i = 0; i < runCount; i++) {
+            // A root precedes all of its children, so its id is known before any child needs it
+            int root = find(parent, i);
+            int c;
+            if (root == i) {
+                c = componentCount++;
+                if (stats.length < componentCount * FIELDS) {
+                    stats = Arrays.copyOf(stats, stats.length * 2);
+                }
+                int o = c * FIELDS;
+                stats[o + MIN_X] = runStart[i];
+                stats[o + MIN_Y] = runRow[i];
+                stats[o + MAX_X] = runEnd[i];
+                stats[o + MAX_Y] = runRow[i];
+                stats[o + AREA] = 0;
+                stats[o + DARK] = 0;
+                componentId[i] = c;
+            } else {
+                c = componentId[root];
+                componentId[i] = c;
+            }
+            int o = c * FIELDS;
+            int y = runRow[i];
+            if (runStart[i] < stats[o + MIN_X]) stats[o + MIN_X] = runStart[i];
+            if (runEnd[i] > stats[o + MAX_X]) stats[o + MAX_X] = runEnd[i];
+            if (y > stats[o + MAX_Y]) stats[o + MAX_Y] = y;
+            stats[o + AREA] += runEnd[i] - runStart[i] + 1;
+            if (dark != null) stats[o + DARK] += dark.countRow(y, runStart[i], runEnd[i]);
+        }
+    }
+
+    // First pass over one band of rows, with band-local run indices.
+    private static final class BandRuns {
+        int count;
+        int[] row = new int[256];
+        int[] start = new int[256];
+        int[] end = new int[256];
+        int[] parent = new int[256];
+        // Runs [0, firstRowTo) lie on the band's first row, runs [lastRowFrom, count) on its last row
+        int firstRowTo;
+        int lastRowFrom;
+
+        void collect(BitMask mask, int from, int to) {
+            count = 0;
+            firstRowTo = 0;
+            lastRowFrom = 0;
+            int prevFrom = 0;
+            for (int y = from; y < to; y++) {
+                int rowFrom = count;
+                collectRow(mask, y);
+                if (y > from) {
+                    unionRows(start, end, parent, prevFrom, rowFrom, count);
+                } else {
+                    firstRowTo = count;
+                }
+                prevFrom = rowFrom;
+            }
+            lastRowFrom = prevFrom;
+        }
+
+        private void collectRow(BitMask mask, int y) {
+            long[] words = mask.words();
+            int base = mask.rowOffset(y);
+            int n = mask.wordsPerRow();
+            int x = 0;
+            int limit = n << 6;
+            while (x < limit) {
+                // Find the next set bit at or after x
+                int wi = x >>> 6;
+                long word = words[base + wi] & (-1L << x);
+                while (word == 0) {
+                    if (++wi >= n) return;
+                    word = words[base + wi];
+                }
+                int runFrom = (wi << 6) + Long.numberOfTrailingZeros(word);
+                // Find the next clear bit after it
+                long inv = ~words[base + wi] & (-1L << runFrom);
+                while (inv == 0) {
+                    if (++wi >= n) break;
+                    inv = ~words[base + wi];
+                }
+                int runTo = (wi >= n ? limit : (wi << 6) + Long.numberOfTrailingZeros(inv)) - 1;
+                add(y, runFrom, runTo);
+                x = runTo + 1;
+            }
+        }
+
+        private void add(int y, int runFrom, int runTo) {
+            if (count == row.length) {
+                int cap = count * 2;
+                row = Arrays.copyOf(row, cap);
+                start = Arrays.copyOf(start, cap);
+                end = Arrays.copyOf(end, cap);
+                parent = Arrays.copyOf(parent, cap);
+            }
+            row[count] = y;
+            start[count] = runFrom;
+            end[count] = runTo;
+            parent[count] = count;
+            count++;
+        }
+    }
+}
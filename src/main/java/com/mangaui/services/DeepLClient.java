@@ -2,8 +2,14 @@ package com.mangaui.services;
 
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
+import okhttp3.HttpUrl;
 import okhttp3.MediaType;
 import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
 import okhttp3.Request;
 import okhttp3.RequestBody;
 import okhttp3.Response;
@@ -11,39 +17,433 @@ import okhttp3.Response;
 import java.io.IOException;
 import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
 
 public class DeepLClient {
-    private final OkHttpClient httpClient = new OkHttpClient();
+    // Limits of one /v2/translate request: text parameters, and size of the whole request body
+    private static final int MAX_TEXTS_PER_REQUEST = 50;
+    private static final int MAX_REQUEST_BYTES = 128 * 1024;
+    // What every request asks for; part of the translation cache key
+    private static final String SOURCE_LANG = "auto";
+    private static final String TARGET_LANG = "EN";
+    private static final String FORMALITY = "default";
+    private static final String TARGET_PARAM = "target_lang=" + TARGET_LANG;
+    private static final int HTTP_PAYLOAD_TOO_LARGE = 413;
+    private static final String DEFAULT_API_URL = "https://api-free.deepl.com/v2/translate";
+    // Requests in flight at once, -Dmangaui.deeplMaxRequests; all go to the same host
+    private static final int MAX_REQUESTS = Integer.getInteger("mangaui.deeplMaxRequests", 16);
+    private static final long CONNECT_TIMEOUT_MS = Long.getLong("mangaui.deeplConnectTimeoutMs", 10_000);
+    private static final long READ_TIMEOUT_MS = Long.getLong("mangaui.deeplReadTimeoutMs", 30_000);
+    private static final int HTTP_TOO_MANY_REQUESTS = 429;
+    private static final int HTTP_QUOTA_EXCEEDED = 456;
+    // Request rate and burst, -Dmangaui.deeplRequestsPerSecond / -Dmangaui.deeplBurst
+    private static final double REQUESTS_PER_SECOND = Double.parseDouble(System.getProperty("mangaui.deeplRequestsPerSecond", "5"));
+    private static final int BURST = Integer.getInteger("mangaui.deeplBurst", 10);
+    // Retries after 429 or 5xx, -Dmangaui.deeplMaxRetries, and their backoff
+    private static final int MAX_RETRIES = Integer.getInteger("mangaui.deeplMaxRetries", 5);
+    private static final long RETRY_BASE_MS = 500;
+    private static final long RETRY_MAX_MS = 30_000;
+    // Shared by all instances, so they share connections too
+    private static final OkHttpClient HTTP_CLIENT = newHttpClient();
+    private static final RateLimiter RATE_LIMITER = new RateLimiter(REQUESTS_PER_SECOND, BURST);
+    // Translation cache lookups, in order behind the log being opened
+    private static final ExecutorService CACHE_LOOKUPS = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "translation-cache");
+        t.setDaemon(true);
+        return t;
+    });
+    private static final ScheduledExecutorService SCHEDULER = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "deepl-retry");
+        t.setDaemon(true);
+        return t;
+    });
+
     private final ObjectMapper mapper = new ObjectMapper();
+    private final TranslationCache cache;
+    // Null when DEEPL_API_URL is not a valid http(s) URL; translations then fail with apiUrlError
+    private final HttpUrl apiUrl;
+    private final String apiUrlError;
+    // One pending translation per cache key, shared by every caller asking for it meanwhile
+    private final ConcurrentHashMap<String, CompletableFuture<String>> inFlight = new ConcurrentHashMap<>();
+    private final AtomicLong coalesced = new AtomicLong();
+    private final AtomicLong charactersSent = new AtomicLong();
+    private final AtomicLong retries = new AtomicLong();
+    private final AtomicLong rateLimited = new AtomicLong();
+    // The API key DeepL last answered 456 for; a new key in Settings gets to try again
+    private volatile String quotaExceededKey;
+
+    public DeepLClient() {
+        this(new TranslationCache(), System.getProperty("DEEPL_API_URL", System.getenv("DEEPL_API_URL")));
+    }
+
+    /** A client caching in {@code cache} and sending to {@code apiUrl}; null or blank means the free endpoint. */
+    DeepLClient(TranslationCache cache, String apiUrl) {
+        this.cache = cache;
+        String url = apiUrl == null || apiUrl.isBlank() ? DEFAULT_API_URL : apiUrl.trim();
+        this.apiUrl = HttpUrl.parse(url);
+        this.apiUrlError = this.apiUrl == null ? "DEEPL_API_URL is not a valid http(s) URL: " + url : null;
+        // Read the cache log in the background rather than on the first translation
+        CACHE_LOOKUPS.execute(cache::open);
+    }
 
     public String translateToEnglish(String text) throws IOException {
-        String apiKey = System.getProperty("DEEPL_API_KEY", System.getenv("DEEPL_API_KEY"));
-        if (apiKey == null || apiKey.isBlank()) {
-            throw new IllegalStateException("DEEPL_API_KEY is not set. Add it in Settings.");
+        return translateBatch(List.of(text)).get(0);
+    }
+
+    /**
+     * Translates all texts with as few requests as DeepL's limits allow: up to {@value #MAX_TEXTS_PER_REQUEST}
+     * texts and {@value #MAX_REQUEST_BYTES} bytes per request. Translations come back in the order of
+     * {@code texts}. Blank texts and texts translated before (see {@link TranslationCache}) are not sent; a
+     * text that repeats on the page, or that another call is already translating, is sent only once.
+     */
+    public List<String> translateBatch(List<String> texts) throws IOException {
+        return join(translateBatchAsync(texts));
+    }
+
+    /** Like {@link #translateToEnglish}, without blocking the caller. */
+    public CompletableFuture<String> translateAsync(String text) {
+        return translateBatchAsync(List.of(text)).thenApply(translations -> translations.get(0));
+    }
+
+    /**
+     * Like {@link #translateBatch}, without blocking the caller: the requests are all sent at once and the
+     * future completes on an HTTP thread when the last one is answered.
+     */
+    public CompletableFuture<List<String>> translateBatchAsync(List<String> texts) {
+        if (apiUrl == null) return CompletableFuture.failedFuture(new IllegalStateException(apiUrlError));
+        String apiKey;
+        try {
+            apiKey = apiKey();
+        } catch (IllegalStateException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        // A cache miss in memory reads the log file, which must not happen on the caller's thread (the EDT)
+        return CompletableFuture.supplyAsync(() -> translatePage(apiKey, texts), CACHE_LOOKUPS)
+                .thenCompose(Function.identity());
+    }
+
+    private CompletableFuture<List<String>> translatePage(String apiKey, List<String> texts) {
+        String[] results = new String[texts.size()];
+        Arrays.fill(results, "");
+        // Every text not answered from the cache waits on the one translation of its key: its own request,
+        // a repeat earlier on this page, or a request another caller already has in flight
+        Map<String, CompletableFuture<String>> page = new HashMap<>();
+        List<CompletableFuture<Void>> pending = new ArrayList<>();
+        // Keys this call put in inFlight, so a throw below doesn't leave them to hang every later caller
+        Map<String, CompletableFuture<String>> registered = new HashMap<>();
+        try {
+            Batch batch = new Batch();
+            for (int i = 0; i < texts.size(); i++) {
+                String text = texts.get(i);
+                if (text == null || text.isBlank()) continue;
+                String key = TranslationCache.key(text, SOURCE_LANG, TARGET_LANG, FORMALITY);
+                CompletableFuture<String> translation = page.get(key);
+                if (translation == null) {
+                    String cached = cache.get(key);
+                    if (cached != null) {
+                        results[i] = cached;
+                        continue;
+                    }
+                    CompletableFuture<String> mine = new CompletableFuture<>();
+                    translation = inFlight.putIfAbsent(key, mine);
+                    if (translation == null) {
+                        registered.put(key, mine);
+                        translation = mine;
+                        String param = "text=" + URLEncoder.encode(text, StandardCharsets.UTF_8);
+                        if (!batch.fits(param)) {
+                            send(apiKey, batch);
+                            batch = new Batch();
+                        }
+                        batch.add(key, param, mine);
+                        charactersSent.addAndGet(text.length());
+                    } else {
+                        coalesced.incrementAndGet();
+                    }
+                    page.put(key, translation);
+                } else {
+                    coalesced.incrementAndGet();
+                }
+                int index = i;
+                pending.add(translation.thenAccept(t -> results[index] = t));
+            }
+            if (!batch.keys.isEmpty()) send(apiKey, batch);
+        } catch (RuntimeException e) {
+            registered.forEach((key, translation) -> {
+                translation.completeExceptionally(e);
+                inFlight.remove(key, translation);
+            });
+            throw e;
+        }
+        return CompletableFuture.allOf(pending.toArray(new CompletableFuture<?>[0])).thenApply(v -> Arrays.asList(results));
+    }
+
+    /** Translations already paid for, with their hit and miss counts. */
+    public TranslationCache cache() {
+        return cache;
+    }
+
+    /** Texts that shared a translation with a repeat on the same page or an identical request in flight. */
+    public long coalesced() {
+        return coalesced.get();
+    }
+
+    /** Characters of source text sent to DeepL, the unit it bills by. */
+    public long charactersSent() {
+        return charactersSent.get();
+    }
+
+    // Cached first, then handed to everyone waiting; only then is the key free for a new request
+    private void send(String apiKey, Batch batch) {
+        String[] translated = new String[batch.keys.size()];
+        List<Integer> indices = new ArrayList<>();
+        for (int i = 0; i < translated.length; i++) indices.add(i);
+        translate(apiKey, indices, batch.params, translated).whenComplete((v, ex) -> {
+            for (int i = 0; i < translated.length; i++) {
+                String key = batch.keys.get(i);
+                CompletableFuture<String> translation = batch.translations.get(i);
+                if (ex == null) {
+                    cache.put(key, translated[i]);
+                    translation.complete(translated[i]);
+                } else {
+                    translation.completeExceptionally(ex);
+                }
+                inFlight.remove(key, translation);
+            }
+        });
+    }
+
+    // Texts for one request, within DeepL's limits
+    static final class Batch {
+        final List<String> keys = new ArrayList<>();
+        final List<String> params = new ArrayList<>();
+        final List<CompletableFuture<String>> translations = new ArrayList<>();
+        int bytes = TARGET_PARAM.length();
+
+        // +1 for the '&' in front of the parameter
+        boolean fits(String param) {
+            return keys.isEmpty() || (keys.size() < MAX_TEXTS_PER_REQUEST && bytes + param.length() + 1 <= MAX_REQUEST_BYTES);
         }
 
-        String data = "text=" + URLEncoder.encode(text, StandardCharsets.UTF_8) +
-                "&target_lang=EN";
+        void add(String key, String param, CompletableFuture<String> translation) {
+            keys.add(key);
+            params.add(param);
+            translations.add(translation);
+            bytes += param.length() + 1;
+        }
+    }
+
+    // One request for the texts at {@code indices}, halved and retried if DeepL finds it too large anyway
+    private CompletableFuture<Void> translate(String apiKey, List<Integer> indices, List<String> params, String[] results) {
+        String data = String.join("&", params) + "&" + TARGET_PARAM;
 
         Request request = new Request.Builder()
-                .url("https://api-free.deepl.com/v2/translate")
+                .url(apiUrl)
                 .addHeader("Authorization", "DeepL-Auth-Key " + apiKey)
                 .post(RequestBody.create(data, MediaType.parse("application/x-www-form-urlencoded")))
                 .build();
 
-        try (Response response = httpClient.newCall(request).execute()) {
-            if (!response.isSuccessful()) {
-                throw new IOException("DeepL API error: " + response.code() + " " + response.message());
+        return execute(request, apiKey).thenCompose(reply -> {
+            if (reply.code == HTTP_PAYLOAD_TOO_LARGE && indices.size() > 1) {
+                int half = indices.size() / 2;
+                return CompletableFuture.allOf(
+                        translate(apiKey, indices.subList(0, half), params.subList(0, half), results),
+                        translate(apiKey, indices.subList(half, indices.size()), params.subList(half, params.size()), results));
             }
-            String body = response.body() != null ? response.body().string() : "{}";
-            JsonNode node = mapper.readTree(body);
-            JsonNode translations = node.path("translations");
-            if (translations.isArray() && translations.size() > 0) {
-                return translations.get(0).path("text").asText("");
+            try {
+                if (reply.code < 200 || reply.code >= 300) {
+                    throw new IOException("DeepL API error: " + reply.code + " " + reply.message);
+                }
+                JsonNode translations = mapper.readTree(reply.body).path("translations");
+                if (!translations.isArray() || translations.size() != indices.size()) {
+                    throw new IOException("DeepL returned " + translations.size() + " translations for " + indices.size() + " texts");
+                }
+                for (int i = 0; i < indices.size(); i++) {
+                    results[indices.get(i)] = translations.get(i).path("text").asText("");
+                }
+                return CompletableFuture.completedFuture(null);
+            } catch (IOException e) {
+                return CompletableFuture.failedFuture(e);
             }
-            return "";
+        });
+    }
+
+    // Sends the request when the rate limiter allows, and again after 429 or a 5xx: after the Retry-After
+    // the server asks for, else after an exponential backoff with jitter. A 429 also pauses every other
+    // request for that long. 456 fails this and every later request with the same key
+    private CompletableFuture<Reply> execute(Request request, String apiKey) {
+        CompletableFuture<Reply> reply = new CompletableFuture<>();
+        if (apiKey.equals(quotaExceededKey)) {
+            reply.completeExceptionally(new DeepLQuotaExceededException());
+        } else {
+            attempt(request, apiKey, 0, reply);
         }
+        return reply;
     }
-}
 
+    private void attempt(Request request, String apiKey, int retry, CompletableFuture<Reply> reply) {
+        long wait = RATE_LIMITER.reserve();
+        if (wait > 0) {
+            SCHEDULER.schedule(() -> enqueue(request, apiKey, retry, reply), wait, TimeUnit.MILLISECONDS);
+        } else {
+            enqueue(request, apiKey, retry, reply);
+        }
+    }
+
+    private void enqueue(Request request, String apiKey, int retry, CompletableFuture<Reply> reply) {
+        HTTP_CLIENT.newCall(request).enqueue(new Callback() {
+            @Override
+            public void onFailure(Call call, IOException e) {
+                reply.completeExceptionally(e);
+            }
+
+            @Override
+            public void onResponse(Call call, Response response) {
+                Reply r;
+                String retryAfter;
+                try (response) {
+                    retryAfter = response.header("Retry-After");
+                    r = new Reply(response.code(), response.message(),
+                            response.body() != null ? response.body().string() : "{}");
+                } catch (IOException e) {
+                    reply.completeExceptionally(e);
+                    return;
+                }
+                if (r.code == HTTP_QUOTA_EXCEEDED) {
+                    quotaExceededKey = apiKey;
+                    reply.completeExceptionally(new DeepLQuotaExceededException());
+                } else if (isRetryable(r.code) && retry < MAX_RETRIES) {
+                    long delay = retryDelayMs(retry, retryAfter);
+                    if (r.code == HTTP_TOO_MANY_REQUESTS) {
+                        rateLimited.incrementAndGet();
+                        RATE_LIMITER.pause(delay);
+                    }
+                    retries.incrementAndGet();
+                    SCHEDULER.schedule(() -> attempt(request, apiKey, retry + 1, reply), delay, TimeUnit.MILLISECONDS);
+                } else {
+                    reply.complete(r);
+                }
+            }
+        });
+    }
+
+    private static boolean isRetryable(int code) {
+        return code == HTTP_TOO_MANY_REQUESTS || code == 500 || code == 502 || code == 503 || code == 504;
+    }
 
+    // The server's Retry-After (seconds or an HTTP date) if it gave one, else 2^retry times the base delay,
+    // capped; either way with up to half of it added at random, so clients don't come back in step
+    static long retryDelayMs(int retry, String retryAfter) {
+        long delay = Math.min(RETRY_MAX_MS, RETRY_BASE_MS << Math.min(retry, 20));
+        if (retryAfter != null) {
+            try {
+                delay = Long.parseLong(retryAfter.trim()) * 1000;
+            } catch (NumberFormatException e) {
+                try {
+                    delay = Duration.between(Instant.now(),
+                            ZonedDateTime.parse(retryAfter.trim(), DateTimeFormatter.RFC_1123_DATE_TIME)).toMillis();
+                } catch (DateTimeParseException ignored) {
+                    // Keep the backoff
+                }
+            }
+            delay = Math.max(0, delay);
+        }
+        return delay + (long) (ThreadLocalRandom.current().nextDouble() * delay / 2);
+    }
+
+    /** Request pacing, shared by all instances: DeepL limits the account, not the client. */
+    public static RateLimiter rateLimiter() {
+        return RATE_LIMITER;
+    }
+
+    /** Requests sent again after a 429 or 5xx. */
+    public long retries() {
+        return retries.get();
+    }
+
+    /** 429 Too Many Requests answers received. */
+    public long rateLimited() {
+        return rateLimited.get();
+    }
+
+    /** True once DeepL has answered 456 for the current API key; translations then fail without a request. */
+    public boolean quotaExceeded() {
+        String apiKey = System.getProperty("DEEPL_API_KEY", System.getenv("DEEPL_API_KEY"));
+        return apiKey != null && apiKey.equals(quotaExceededKey);
+    }
+
+    private static final class Reply {
+        final int code;
+        final String message;
+        final String body;
+
+        Reply(int code, String message, String body) {
+            this.code = code;
+            this.message = message;
+            this.body = body;
+        }
+    }
+
+    // HTTP/2 where the server offers it, so concurrent requests share one connection; otherwise up to
+    // MAX_REQUESTS HTTP/1.1 connections, kept for reuse. Calls run on daemon threads so they never keep
+    // the app from exiting
+    private static OkHttpClient newHttpClient() {
+        ThreadPoolExecutor threads = new ThreadPoolExecutor(0, Integer.MAX_VALUE, 60, TimeUnit.SECONDS,
+                new SynchronousQueue<>(), r -> {
+                    Thread t = new Thread(r, "deepl-http");
+                    t.setDaemon(true);
+                    return t;
+                });
+        Dispatcher dispatcher = new Dispatcher(threads);
+        dispatcher.setMaxRequests(MAX_REQUESTS);
+        dispatcher.setMaxRequestsPerHost(MAX_REQUESTS);
+        return new OkHttpClient.Builder()
+                .dispatcher(dispatcher)
+                .connectionPool(new ConnectionPool(MAX_REQUESTS, 5, TimeUnit.MINUTES))
+                .protocols(List.of(Protocol.HTTP_2, Protocol.HTTP_1_1))
+                .connectTimeout(CONNECT_TIMEOUT_MS, TimeUnit.MILLISECONDS)
+                .readTimeout(READ_TIMEOUT_MS, TimeUnit.MILLISECONDS)
+                .build();
+    }
+
+    // The failure of an async call, as the synchronous methods throw it
+    private static <T> T join(CompletableFuture<T> future) throws IOException {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            Throwable cause = e;
+            while (cause instanceof CompletionException && cause.getCause() != null) cause = cause.getCause();
+            if (cause instanceof IOException) throw (IOException) cause;
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            throw new IOException(cause);
+        }
+    }
+
+    private static String apiKey() {
+        String apiKey = System.getProperty("DEEPL_API_KEY", System.getenv("DEEPL_API_KEY"));
+        if (apiKey == null || apiKey.isBlank()) {
+            throw new IllegalStateException("DEEPL_API_KEY is not set. Add it in Settings.");
+        }
+        return apiKey;
+    }
+}
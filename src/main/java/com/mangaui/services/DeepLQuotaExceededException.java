@@ -0,0 +1,10 @@
+package com.mangaui.services;
+
+import java.io.IOException;
+
+/** DeepL answered 456: the API key's character quota is used up, and retrying will not help. */
+public class DeepLQuotaExceededException extends IOException {
+    public DeepLQuotaExceededException() {
+        super("DeepL quota exceeded: this API key has used up its characters for the billing period");
+    }
+}
@@ -0,0 +1,77 @@
+package com.mangaui.services;
+
+/**
+ * Every buffer {@link BubbleDetector} needs: the dark/light masks, dilation and labeling scratch, the
+ * summed-area tables and per-band row buffers. Buffers only grow, so once a workspace has seen the largest
+ * capture size, further detections allocate almost nothing.
+ *
+ * A workspace serves one detection at a time. {@link #forCurrentThread()} hands out one per thread, which is
+ * what callers that detect repeatedly (e.g. watching a screen region) should use.
+ */
+public final class DetectorWorkspace {
+    private static final ThreadLocal<DetectorWorkspace> PER_THREAD = ThreadLocal.withInitial(DetectorWorkspace::new);
+
+    // Per-band row buffers: packed pixels, and dark, light and dilation words
+    static final int DARK_WORDS = 0;
+    static final int LIGHT_WORDS = 1;
+    static final int RUN_WORDS = 2;
+    private static final int WORD_SLOTS = 3;
+
+    final BitMask darkMask = new BitMask();
+    final BitMask lightMask = new BitMask();
+    final BitMask dilated = new BitMask();
+    final BitMask dilateScratch = new BitMask();
+    final BitMask prefixRows = new BitMask();
+    final BitMask suffixRows = new BitMask();
+    final ComponentLabeler labeler = new ComponentLabeler();
+    final IntegralImage darkIntegral = new IntegralImage();
+    final BitMask coarseDark = new BitMask();
+    final BitMask coarseLight = new BitMask();
+    final IntegralImage coarseIntegral = new IntegralImage();
+
+    private int[][] pixelRows = new int[0][];
+    private long[][] wordRows = new long[0][];
+
+    public static DetectorWorkspace forCurrentThread() {
+        return PER_THREAD.get();
+    }
+
+    /**
+     * Makes sure every band in [0, bandCount) has row buffers for {@code width} pixels. Called before any band
+     * task runs, so the tasks themselves only read the arrays.
+     */
+    void prepare(int bandCount, int width) {
+        int n = (width + 63) >>> 6;
+        if (pixelRows.length < bandCount) {
+            pixelRows = grow(pixelRows, bandCount);
+            wordRows = grow(wordRows, bandCount * WORD_SLOTS);
+        }
+        for (int b = 0; b < bandCount; b++) {
+            if (pixelRows[b] == null || pixelRows[b].length < width) pixelRows[b] = new int[width];
+            for (int s = 0; s < WORD_SLOTS; s++) {
+                int i = b * WORD_SLOTS + s;
+                if (wordRows[i] == null || wordRows[i].length < n) wordRows[i] = new long[n];
+            }
+        }
+    }
+
+    int[] pixelRow(int band) {
+        return pixelRows[band];
+    }
+
+    long[] wordRow(int band, int slot) {
+        return wordRows[band * WORD_SLOTS + slot];
+    }
+
+    private static int[][] grow(int[][] a, int size) {
+        int[][] grown = new int[size][];
+        System.arraycopy(a, 0, grown, 0, a.length);
+        return grown;
+    }
+
+    private static long[][] grow(long[][] a, int size) {
+        long[][] grown = new long[size][];
+        System.arraycopy(a, 0, grown, 0, a.length);
+        return grown;
+    }
+}
@@ -0,0 +1,117 @@
+package com.mangaui.services;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * An 8-bit grayscale image in a plain byte array, row-major without padding. This is what the OCR engines
+ * get handed in memory instead of a PNG file; both of them work on grayscale anyway.
+ */
+public final class GrayImage {
+    private final int width;
+    private final int height;
+    private final byte[] pixels;
+
+    public GrayImage(int width, int height, byte[] pixels) {
+        if (pixels.length < width * height) {
+            throw new IllegalArgumentException("Expected " + width * height + " pixels, got " + pixels.length);
+        }
+        this.width = width;
+        this.height = height;
+        this.pixels = pixels;
+    }
+
+    /**
+     * Converts with the same weights as Pillow's {@code convert("L")} (ITU-R 601-2, rounded), so manga-ocr sees
+     * exactly the gray values it would have computed from a PNG of the same crop.
+     */
+    public static GrayImage of(BufferedImage image) {
+        int w = image.getWidth();
+        int h = image.getHeight();
+        byte[] gray = new byte[w * h];
+        int[] row = new int[w];
+        PixelRows pixels = new PixelRows(image);
+        for (int y = 0; y < h; y++) {
+            pixels.read(y, 0, w, row);
+            int o = y * w;
+            for (int x = 0; x < w; x++) {
+                int rgb = row[x];
+                gray[o + x] = (byte) ((((rgb >> 16) & 0xFF) * 19595 + ((rgb >> 8) & 0xFF) * 38470 + (rgb & 0xFF) * 7471 + 0x8000) >>> 16);
+            }
+        }
+        return new GrayImage(w, h, gray);
+    }
+
+    public int width() { return width; }
+
+    public int height() { return height; }
+
+    /** The backing array, not a copy. */
+    public byte[] pixels() { return pixels; }
+
+    public BufferedImage toBufferedImage() {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_BYTE_GRAY);
+        image.getRaster().setDataElements(0, 0, width, height, pixels);
+        return image;
+    }
+
+    /** One uncompressed multi-page TIFF holding all images, which tesseract reads from stdin page by page. */
+    public static byte[] toMultipageTiff(List<GrayImage> pages) throws IOException {
+        Iterator<ImageWriter> writers = ImageIO.getImageWritersByFormatName("tiff");
+        if (!writers.hasNext()) throw new IOException("No TIFF writer available");
+        ImageWriter writer = writers.next();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ImageOutputStream out = ImageIO.createImageOutputStream(bytes)) {
+            writer.setOutput(out);
+            writer.prepareWriteSequence(null);
+            for (GrayImage page : pages) {
+                writer.writeToSequence(new IIOImage(page.toBufferedImage(), null, null), null);
+            }
+            writer.endWriteSequence();
+        } finally {
+            writer.dispose();
+        }
+        return bytes.toByteArray();
+    }
+
+    /** True if every pixel is pure black or white, e.g. after binarizing. */
+    public boolean isBilevel() {
+        for (int i = 0; i < width * height; i++) {
+            int v = pixels[i] & 0xFF;
+            if (v != 0 && v != 255) return false;
+        }
+        return true;
+    }
+
+    /** Binary PBM (P4), one bit per pixel with 1 for black; only meaningful for {@link #isBilevel()} images. */
+    public byte[] toPbm() {
+        byte[] header = ("P4\n" + width + " " + height + "\n").getBytes(StandardCharsets.US_ASCII);
+        int rowBytes = (width + 7) / 8;
+        byte[] pbm = new byte[header.length + rowBytes * height];
+        System.arraycopy(header, 0, pbm, 0, header.length);
+        for (int y = 0; y < height; y++) {
+            int o = header.length + y * rowBytes;
+            for (int x = 0; x < width; x++) {
+                if (pixels[y * width + x] == 0) pbm[o + (x >> 3)] |= (byte) (0x80 >>> (x & 7));
+            }
+        }
+        return pbm;
+    }
+
+    /** Binary PGM (P5), which tesseract reads from stdin. */
+    public byte[] toPgm() {
+        byte[] header = ("P5\n" + width + " " + height + "\n255\n").getBytes(StandardCharsets.US_ASCII);
+        byte[] pgm = new byte[header.length + width * height];
+        System.arraycopy(header, 0, pgm, 0, header.length);
+        System.arraycopy(pixels, 0, pgm, header.length, width * height);
+        return pgm;
+    }
+}
@@ -0,0 +1,242 @@
+package com.mangaui.services;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Bubble detection for repeated captures of the same screen region. Each capture is hashed in 32x32 tiles;
+ * only tiles whose hash changed since the previous capture are re-detected, grown by a margin and by any
+ * previous bubble they touch, and every previous bubble away from the changes is reused as is. An unchanged
+ * capture costs one hashing pass.
+ *
+ * Falls back to a full {@link BubbleDetector#detectBubbles(BufferedImage)} on the first capture, on a size
+ * change, when the regions to re-detect cover more than half of the capture, and when a region no longer
+ * finds a bubble it absorbed or saw cut off at its edge. Like the detector it wraps, an instance is not
+ * thread-safe.
+ */
+public final class IncrementalDetector {
+    static final int TILE = 32;
+    // Reach of a change: dilation radius, dark-box padding and merge distance, rounded up to a tile
+    private static final int MARGIN = 32;
+    private static final int MERGE_PAD = 8;
+    // Above this share of the capture, re-detecting piecewise is no cheaper than one full pass
+    private static final double MAX_DIRTY_FRACTION = 0.5;
+
+    private final BubbleDetector detector;
+    private int previousWidth;
+    private int previousHeight;
+    private long[] previousHashes;
+    private List<Rectangle> previousBoxes;
+    private int[] row = new int[0];
+    private int lastDirtyTiles;
+    private int lastTileCount;
+
+    public IncrementalDetector() {
+        this(new BubbleDetector());
+    }
+
+    public IncrementalDetector(BubbleDetector detector) {
+        this.detector = detector;
+    }
+
+    public BubbleDetector detector() {
+        return detector;
+    }
+
+    /** Detects bubbles in {@code image}, reusing what is still valid from the previous call. */
+    public List<Rectangle> detect(BufferedImage image) {
+        long[] hashes = hashTiles(image);
+        List<Rectangle> boxes;
+        if (previousHashes == null || image.getWidth() != previousWidth || image.getHeight() != previousHeight) {
+            lastTileCount = hashes.length;
+            lastDirtyTiles = hashes.length;
+            boxes = detector.detectBubbles(image);
+        } else {
+            boxes = redetect(image, previousHashes, hashes, previousBoxes);
+        }
+        previousWidth = image.getWidth();
+        previousHeight = image.getHeight();
+        previousHashes = hashes;
+        previousBoxes = copy(boxes);
+        return boxes;
+    }
+
+    /**
+     * Stateless form: re-detects {@code image} given an earlier capture of the same region and the boxes
+     * detected on it. Does not touch the state used by {@link #detect(BufferedImage)}.
+     */
+    public List<Rectangle> detect(BufferedImage image, BufferedImage previous, List<Rectangle> previousBoxes) {
+        long[] hashes = hashTiles(image);
+        if (previous.getWidth() != image.getWidth() || previous.getHeight() != image.getHeight()) {
+            lastTileCount = hashes.length;
+            lastDirtyTiles = hashes.length;
+            return detector.detectBubbles(image);
+        }
+        return redetect(image, hashTiles(previous), hashes, previousBoxes);
+    }
+
+    /** Forgets the previous capture, so the next {@link #detect(BufferedImage)} runs a full detection. */
+    public void reset() {
+        previousHashes = null;
+        previousBoxes = null;
+    }
+
+    /** Tiles that differed from the previous capture in the last call (all of them after a full detection). */
+    public int lastDirtyTiles() {
+        return lastDirtyTiles;
+    }
+
+    public int lastTileCount() {
+        return lastTileCount;
+    }
+
+    private List<Rectangle> redetect(BufferedImage image, long[] before, long[] after, List<Rectangle> oldBoxes) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int cols = (width + TILE - 1) / TILE;
+        Rectangle bounds = new Rectangle(0, 0, width, height);
+
+        List<Rectangle> regions = new ArrayList<>();
+        for (int t = 0; t < after.length; t++) {
+            if (before[t] == after[t]) continue;
+            Rectangle tile = new Rectangle((t % cols) * TILE - MARGIN, (t / cols) * TILE - MARGIN, TILE + 2 * MARGIN, TILE + 2 * MARGIN);
+            regions.add(tile.intersection(bounds));
+        }
+        lastTileCount = after.length;
+        lastDirtyTiles = regions.size();
+        if (regions.isEmpty()) return copy(oldBoxes);
+
+        // A change can reshape, split or merge any bubble it comes close to, so those are re-detected whole
+        List<Rectangle> kept = copy(oldBoxes);
+        // Boxes a region must find again: kept boxes it absorbed, and boxes it cut off before it grew
+        List<Rectangle> expected = new ArrayList<>();
+        List<Rectangle> boxes = new ArrayList<>();
+        long doneArea = 0;
+        while (!regions.isEmpty()) {
+            regions = absorb(regions, kept, expected, bounds);
+            long dirtyArea = doneArea;
+            for (Rectangle region : regions) dirtyArea += (long) region.width * region.height;
+            if (dirtyArea > MAX_DIRTY_FRACTION * width * height) {
+                return detector.detectBubbles(image);
+            }
+            List<Rectangle> clipped = new ArrayList<>();
+            for (Rectangle region : regions) {
+                List<Rectangle> found = detector.detectBubbles(image, region);
+                if (touchesInnerEdge(found, region, width, height)) {
+                    // Something ran into the edge of the region and was cut off, so its real size and shape
+                    // are unknown; try again on a region twice as large
+                    expected.addAll(found);
+                    region.grow(Math.max(MARGIN, region.width / 2), Math.max(MARGIN, region.height / 2));
+                    Rectangle.intersect(region, bounds, region);
+                    clipped.add(region);
+                } else if (!allFound(expected, region, found)) {
+                    // A bubble vanished, or a filter dropped a box the region only saw cut off (e.g. one that
+                    // grew past the size limit): only a full pass can tell which
+                    return detector.detectBubbles(image);
+                } else {
+                    boxes.addAll(found);
+                    doneArea += (long) region.width * region.height;
+                }
+            }
+            regions = clipped;
+        }
+        boxes.addAll(kept);
+        // New boxes near the edge of a region may still need merging with a kept neighbour
+        boxes = BubbleDetector.suppressLarge(BoxMerger.merge(boxes, MERGE_PAD), width * height);
+        if (boxes.isEmpty()) {
+            // Only the full pass knows when to fall back to the whole capture
+            return detector.detectBubbles(image);
+        }
+        BubbleDetector.sortReadingOrder(boxes);
+        return boxes;
+    }
+
+    // Merges overlapping regions and moves every kept box close to a region into it, until stable. An
+    // absorbed box is padded by the margin, so that the region sees its surroundings as a full pass would
+    // rather than having it touch the region's edge.
+    private static List<Rectangle> absorb(List<Rectangle> regions, List<Rectangle> kept, List<Rectangle> absorbed,
+                                          Rectangle bounds) {
+        regions = BoxMerger.merge(regions, 0);
+        boolean grown = true;
+        while (grown) {
+            grown = false;
+            for (int i = kept.size() - 1; i >= 0; i--) {
+                Rectangle box = kept.get(i);
+                for (Rectangle region : regions) {
+                    if (BoxMerger.isClose(region, box, MERGE_PAD)) {
+                        Rectangle padded = new Rectangle(box);
+                        padded.grow(MARGIN, MARGIN);
+                        region.add(padded.intersection(bounds));
+                        absorbed.add(kept.remove(i));
+                        grown = true;
+                        break;
+                    }
+                }
+            }
+            if (grown) regions = BoxMerger.merge(regions, 0);
+        }
+        return regions;
+    }
+
+    // Whether every expected box inside the region overlaps a box found there
+    private static boolean allFound(List<Rectangle> expected, Rectangle region, List<Rectangle> found) {
+        for (Rectangle e : expected) {
+            if (!region.contains(e)) continue;
+            boolean seen = false;
+            for (Rectangle f : found) {
+                if (f.intersects(e)) {
+                    seen = true;
+                    break;
+                }
+            }
+            if (!seen) return false;
+        }
+        return true;
+    }
+
+    private static boolean touchesInnerEdge(List<Rectangle> boxes, Rectangle region, int width, int height) {
+        for (Rectangle r : boxes) {
+            if (r.x <= region.x && region.x > 0) return true;
+            if (r.y <= region.y && region.y > 0) return true;
+            if (r.x + r.width >= region.x + region.width && region.x + region.width < width) return true;
+            if (r.y + r.height >= region.y + region.height && region.y + region.height < height) return true;
+        }
+        return false;
+    }
+
+    // Hash of each tile's pixels, row-major over the tile grid. Every pixel is mixed into its tile's hash
+    // with a multiply and a rotate, so unlike a checksum no combination of pixel changes cancels out short of
+    // a 64-bit collision.
+    private long[] hashTiles(BufferedImage image) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int cols = (width + TILE - 1) / TILE;
+        int rows = (height + TILE - 1) / TILE;
+        long[] hashes = new long[cols * rows];
+        Arrays.fill(hashes, 0xCBF29CE484222325L);
+        if (row.length < width) row = new int[width];
+        PixelRows pixels = new PixelRows(image);
+        for (int y = 0; y < height; y++) {
+            pixels.read(y, 0, width, row);
+            int base = (y / TILE) * cols;
+            for (int tx = 0; tx < cols; tx++) {
+                int end = Math.min(width, tx * TILE + TILE);
+                long h = hashes[base + tx];
+                for (int x = tx * TILE; x < end; x++) {
+                    h = Long.rotateLeft((h ^ (row[x] & 0xFFFFFF)) * 0x9E3779B97F4A7C15L, 31);
+                }
+                hashes[base + tx] = h;
+            }
+        }
+        return hashes;
+    }
+
+    private static List<Rectangle> copy(List<Rectangle> boxes) {
+        List<Rectangle> copy = new ArrayList<>(boxes.size());
+        for (Rectangle r : boxes) copy.add(new Rectangle(r));
+        return copy;
+    }
+}
@@ -0,0 +1,98 @@
+package com.mangaui.services;
+
+import java.awt.Rectangle;
+import java.util.Arrays;
+
+/**
+ * Summed-area table of a {@link BitMask}: after one O(width * height) build, the number of set pixels in any
+ * axis-aligned rectangle is four array lookups. The backing array is reused when the next mask fits. Only
+ * this package builds tables; outside it they are read-only.
+ */
+public final class IntegralImage {
+    private int width;
+    private int height;
+    private int stride;
+    private int[] sums = new int[0];
+    private int[][] carry = new int[0][];
+
+    void build(BitMask mask) {
+        build(mask, Bands.serial(mask.height()));
+    }
+
+    /**
+     * Builds the table band by band: each band first sums as if it started the image, then the column totals
+     * of all bands above it are added to every row of the band.
+     */
+    void build(BitMask mask, Bands bands) {
+        width = mask.width();
+        height = mask.height();
+        stride = width + 1;
+        int needed = stride * (height + 1);
+        if (sums.length < needed) {
+            sums = new int[needed];
+        }
+        // Row 0 and column 0 stay zero so lookups need no bounds special-casing
+        for (int x = 0; x < stride; x++) sums[x] = 0;
+        long[] words = mask.words();
+        int n = mask.wordsPerRow();
+        bands.forEach((b, from, to) -> {
+            for (int y = from; y < to; y++) {
+                int above = y * stride;
+                int row = above + stride;
+                sums[row] = 0;
+                int rowSum = 0;
+                int base = y * n;
+                for (int x = 0; x < width; x++) {
+                    rowSum += (int) (words[base + (x >>> 6)] >>> x) & 1;
+                    sums[row + x + 1] = (y == from ? 0 : sums[above + x + 1]) + rowSum;
+                }
+            }
+        });
+        int count = bands.count();
+        if (count == 1) return;
+        if (carry.length < count) carry = new int[count][];
+        for (int b = 0; b < count; b++) {
+            if (carry[b] == null || carry[b].length < stride) carry[b] = new int[stride];
+        }
+        Arrays.fill(carry[0], 0);
+        for (int b = 1; b < count; b++) {
+            int last = bands.end(b - 1) * stride;
+            for (int x = 0; x < stride; x++) carry[b][x] = carry[b - 1][x] + sums[last + x];
+        }
+        bands.forEach((b, from, to) -> {
+            if (b == 0) return;
+            int[] c = carry[b];
+            for (int y = from; y < to; y++) {
+                int row = (y + 1) * stride;
+                for (int x = 0; x < stride; x++) sums[row + x] += c[x];
+            }
+        });
+    }
+
+    public int width() { return width; }
+
+    public int height() { return height; }
+
+    /** Set pixels in [x1..x2] x [y1..y2], bounds inclusive and already inside the image. */
+    public int count(int x1, int y1, int x2, int y2) {
+        if (x1 > x2 || y1 > y2) return 0;
+        int top = y1 * stride;
+        int bottom = (y2 + 1) * stride;
+        return sums[bottom + x2 + 1] - sums[bottom + x1] - sums[top + x2 + 1] + sums[top + x1];
+    }
+
+    /** Set pixels inside {@code r}, clipped to the image. */
+    public int count(Rectangle r) {
+        int x1 = Math.max(0, r.x);
+        int y1 = Math.max(0, r.y);
+        int x2 = Math.min(width - 1, r.x + r.width - 1);
+        int y2 = Math.min(height - 1, r.y + r.height - 1);
+        return count(x1, y1, x2, y2);
+    }
+
+    /** Fraction of the pixels of {@code r} that are set. */
+    public double fraction(Rectangle r) {
+        long area = (long) r.width * r.height;
+        return area <= 0 ? 0.0 : (double) count(r) / (double) area;
+    }
+}
@@ -0,0 +1,82 @@
+package com.mangaui.services;
+
+import java.io.File;
+import java.util.List;
+
+/**
+ * Japanese OCR with manga-ocr, run in each worker's persistent {@link MangaOcrWorker}. Probing only resolves
+ * the Python command: starting Python to import the model would take seconds, and the workers do that anyway
+ * when they warm up.
+ */
+public final class MangaOcrEngine implements OcrEngine {
+    public static final String LANGUAGE = "Japanese (manga-ocr)";
+
+    private String configured;
+    private String pythonCommand;
+
+    @Override
+    public String name() {
+        return "manga-ocr";
+    }
+
+    @Override
+    public boolean supports(String language) {
+        return LANGUAGE.equals(language);
+    }
+
+    @Override
+    public synchronized void probe() {
+        configured = System.getProperty("PYTHON_CMD", System.getenv().getOrDefault("PYTHON_CMD", ""));
+        pythonCommand = resolvePythonCommand(configured);
+    }
+
+    /** The Python command, resolved again only after the PYTHON_CMD setting changed. */
+    public synchronized String pythonCommand() {
+        String current = System.getProperty("PYTHON_CMD", System.getenv().getOrDefault("PYTHON_CMD", ""));
+        if (pythonCommand == null || !current.equals(configured)) probe();
+        return pythonCommand;
+    }
+
+    @Override
+    public void warmUp(OcrWorkerPool.Slot slot) throws Exception {
+        slot.mangaOcr(pythonCommand()).start();
+    }
+
+    @Override
+    public String recognize(OcrWorkerPool.Slot slot, GrayImage image, String language) throws Exception {
+        return slot.mangaOcr(pythonCommand()).recognize(image);
+    }
+
+    @Override
+    public List<String> recognizeBatch(OcrWorkerPool.Slot slot, List<GrayImage> images, String language) throws Exception {
+        return slot.mangaOcr(pythonCommand()).recognizeBatch(images);
+    }
+
+    @Override
+    public String recognizeFile(OcrWorkerPool.Slot slot, String imagePath, String language) throws Exception {
+        return slot.mangaOcr(pythonCommand()).recognizeFile(imagePath);
+    }
+
+    private static String resolvePythonCommand(String configured) {
+        if (configured != null && !configured.isBlank()) {
+            return configured;
+        }
+        // Auto-detect local .venv
+        String projectDir = System.getProperty("user.dir", "");
+        String[] candidates = new String[] {
+                projectDir + File.separator + ".venv" + File.separator + "bin" + File.separator + "python",
+                projectDir + File.separator + "venv" + File.separator + "bin" + File.separator + "python",
+                ".venv/bin/python",
+                "venv/bin/python",
+                "python3",
+                "python"
+        };
+        for (String c : candidates) {
+            File f = new File(c);
+            if ((c.equals("python3") || c.equals("python")) || (f.exists() && f.canExecute())) {
+                return c;
+            }
+        }
+        return "python3";
+    }
+}
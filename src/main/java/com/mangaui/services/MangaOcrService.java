@@ -4,26 +4,49 @@ import javax.imageio.ImageIO;
 import java.awt.Rectangle;
 import java.awt.Robot;
 import java.awt.image.BufferedImage;
-import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.ObjIntConsumer;
 
 public class MangaOcrService {
+    // Below this many pixels the band bookkeeping costs more than parallel detection saves
+    private static final int PARALLEL_DETECT_MIN_PIXELS = 2_000_000;
+    // Coarse-to-fine detection, -Dmangaui.detectPyramid=2 or 4; only pays off on large, mostly empty captures
+    private static final int PYRAMID_FACTOR = Integer.getInteger("mangaui.detectPyramid", 1);
+    // Repeated captures of the same region only re-detect what changed since the previous one
+    private static final ThreadLocal<IncrementalDetector> DETECTOR = ThreadLocal.withInitial(() -> {
+        BubbleDetector detector = new BubbleDetector(DetectorWorkspace.forCurrentThread());
+        if (PYRAMID_FACTOR == 2 || PYRAMID_FACTOR == 4) detector.setPyramidFactor(PYRAMID_FACTOR);
+        return new IncrementalDetector(detector);
+    });
+
+    // Jobs allowed to wait per OCR worker before submitters block
+    private static final int OCR_QUEUE_PER_WORKER = 4;
+
+    // Largest number of crops sent to an engine in one request
+    private static final int MAX_BATCH = 16;
+    private static final long JOB_TIMEOUT_DEFAULT_MS = 180_000;
+    // Deadline for a whole background OCR job, -Dmangaui.ocrJobTimeoutMs; 0 disables it
+    private static final long JOB_TIMEOUT_MS = Long.getLong("mangaui.ocrJobTimeoutMs", JOB_TIMEOUT_DEFAULT_MS);
+    // Pool workers speculative OCR may keep busy before the user picks bubbles, -Dmangaui.ocrSpeculativeWorkers;
+    // default half the pool, 0 waits for the selection
+    private static final Integer SPECULATIVE_WORKERS = Integer.getInteger("mangaui.ocrSpeculativeWorkers");
+    private static final boolean TEMP_FILE_HANDOFF = Boolean.getBoolean("mangaui.ocrTempFiles");
+    // Shared by all instances: they append to the same file under ~/.mangaui
+    private static final OcrCache OCR_CACHE = new OcrCache();
+    private static final OcrPreprocessor PREPROCESSOR = OcrPreprocessor.fromSystemProperties();
+
+    private final OcrEngineRegistry engines = new OcrEngineRegistry();
+    private OcrWorkerPool ocrPool;
+
     public String ocrSelection(Rectangle rect) throws Exception {
         BufferedImage capture = new Robot().createScreenCapture(rect);
-        File temp = File.createTempFile("mangaocr-", ".png");
-        ImageIO.write(capture, "png", temp);
-        try {
-            String raw = runMangaOcr(temp.getAbsolutePath());
-            return extractOcrText(raw);
-        } finally {
-            try { Files.deleteIfExists(temp.toPath()); } catch (IOException ignored) {}
-        }
+        return ocrBatch(List.of(capture)).get(0).text();
     }
 
     public List<String> ocrBubbles(Rectangle rect) throws Exception {
@@ -32,42 +55,221 @@ public class MangaOcrService {
     }
 
     public List<String> ocrBubbles(BufferedImage capture) throws Exception {
-        BubbleDetector detector = new BubbleDetector();
-        List<Rectangle> boxes = detector.detectBubbles(capture);
-        List<String> results = new ArrayList<>();
-        for (Rectangle box : boxes) {
-            BufferedImage sub = capture.getSubimage(box.x, box.y, box.width, box.height);
-            File temp = File.createTempFile("mangaocr-bubble-", ".png");
-            ImageIO.write(sub, "png", temp);
+        return ocrBubbles(capture, detectBubbles(capture));
+    }
+
+    // Bubbles are spread over the worker pool; results come back in box order
+    public List<String> ocrBubbles(BufferedImage capture, List<Rectangle> boxes) throws Exception {
+        return ocrBubbles(capture, boxes, null);
+    }
+
+    /**
+     * Like {@link #ocrBubbles(BufferedImage, List)}, but also hands every bubble to {@code onBubble} the moment
+     * its text is ready, in whatever order they finish. The callback runs on OCR worker threads.
+     */
+    public List<String> ocrBubbles(BufferedImage capture, List<Rectangle> boxes, Consumer<BubbleResult> onBubble)
+            throws Exception {
+        return ocrBubbles(capture, boxes, onBubble, OcrJob.NONE);
+    }
+
+    /** Starts OCR on the bubbles in the background, with the deadline set by -Dmangaui.ocrJobTimeoutMs (3 minutes). */
+    public OcrJob ocrBubblesAsync(BufferedImage capture, List<Rectangle> boxes, Consumer<BubbleResult> onBubble) {
+        return ocrBubblesAsync(capture, boxes, onBubble, JOB_TIMEOUT_MS);
+    }
+
+    /**
+     * Starts OCR on the bubbles in the background and returns at once. Results stream to {@code onBubble} as in
+     * {@link #ocrBubbles(BufferedImage, List, Consumer)} until the job is stopped; all texts complete
+     * {@link OcrJob#result()}. Jobs are independent: starting one does not wait for an earlier one, and
+     * cancelling the earlier one frees the workers for it.
+     */
+    public OcrJob ocrBubblesAsync(BufferedImage capture, List<Rectangle> boxes, Consumer<BubbleResult> onBubble,
+            long timeoutMs) {
+        OcrJob job = new OcrJob(timeoutMs);
+        Thread t = new Thread(() -> {
             try {
-                String raw = runMangaOcr(temp.getAbsolutePath());
-                results.add(extractOcrText(raw));
-            } finally {
-                try { Files.deleteIfExists(temp.toPath()); } catch (IOException ignored) {}
+                job.complete(ocrBubbles(capture, boxes, onBubble, job));
+            } catch (Throwable e) {
+                job.fail(e);
             }
+        }, "ocr-job");
+        t.setDaemon(true);
+        t.start();
+        return job;
+    }
+
+    /**
+     * Starts OCR on all {@code boxes} at low priority while the user picks the ones they want; see
+     * {@link OcrSpeculation}. Results land in the OCR cache too, so later requests for the same crops are hits.
+     */
+    public OcrSpeculation speculate(BufferedImage capture, List<Rectangle> boxes) {
+        OcrWorkerPool pool = ocrPool();
+        int maxWorkers = SPECULATIVE_WORKERS != null ? Math.max(0, SPECULATIVE_WORKERS) : Math.max(1, pool.size() / 2);
+        return new OcrSpeculation(capture, boxes, pool, crop -> slot -> ocrChunk(slot, List.of(crop), 0, null).get(0),
+                (selected, onBubble) -> ocrBubblesAsync(capture, selected, onBubble), maxWorkers, JOB_TIMEOUT_MS);
+    }
+
+    private List<String> ocrBubbles(BufferedImage capture, List<Rectangle> boxes, Consumer<BubbleResult> onBubble,
+            OcrJob job) throws Exception {
+        List<BufferedImage> crops = new ArrayList<>();
+        for (Rectangle box : boxes) {
+            crops.add(capture.getSubimage(box.x, box.y, box.width, box.height));
+        }
+        ObjIntConsumer<OcrResult> listener = onBubble == null ? null
+                : (result, i) -> onBubble.accept(new BubbleResult(i, boxes.get(i), result));
+        List<String> results = new ArrayList<>();
+        for (OcrResult r : ocrBatch(crops, listener, job)) {
+            results.add(r.text());
         }
         return results;
     }
 
-    public List<String> ocrBubbles(BufferedImage capture, List<Rectangle> boxes) throws Exception {
-        List<String> results = new ArrayList<>();
-        for (Rectangle box : boxes) {
-            BufferedImage sub = capture.getSubimage(box.x, box.y, box.width, box.height);
-            File temp = File.createTempFile("mangaocr-bubble-", ".png");
-            ImageIO.write(sub, "png", temp);
-            try {
-                String raw = runMangaOcr(temp.getAbsolutePath());
-                results.add(extractOcrText(raw));
-            } finally {
-                try { Files.deleteIfExists(temp.toPath()); } catch (IOException ignored) {}
+    /**
+     * OCRs all crops with as few engine requests as possible: the crops are split into one chunk per pool
+     * worker (at most {@value #MAX_BATCH} each), and each chunk is one batched manga-ocr forward pass or one
+     * multi-page tesseract run. Results are in crop order, each with its share of the time.
+     */
+    public List<OcrResult> ocrBatch(List<BufferedImage> crops) throws Exception {
+        return ocrBatch(crops, null, OcrJob.NONE);
+    }
+
+    // With a listener, the first round of chunks holds one crop per worker and every round after that doubles,
+    // so the first results arrive after a single recognition and the rest still go in batches
+    private List<OcrResult> ocrBatch(List<BufferedImage> crops, ObjIntConsumer<OcrResult> listener, OcrJob job)
+            throws Exception {
+        List<OcrResult> results = new ArrayList<>(crops.size());
+        if (crops.isEmpty()) return results;
+        OcrWorkerPool pool = ocrPool();
+        int chunk = Math.min(MAX_BATCH, (crops.size() + pool.size() - 1) / pool.size());
+        int size = listener == null ? chunk : 1;
+        List<OcrWorkerPool.Job<List<OcrResult>>> jobs = new ArrayList<>();
+        for (int from = 0; from < crops.size(); from += size) {
+            if (listener != null && jobs.size() > 0 && jobs.size() % pool.size() == 0) {
+                size = Math.min(chunk, size * 2);
             }
+            int offset = from;
+            List<BufferedImage> part = crops.subList(from, Math.min(crops.size(), from + size));
+            jobs.add(slot -> ocrChunk(slot, part, offset, listener));
+        }
+        for (List<OcrResult> part : pool.invokeAll(jobs, job)) {
+            results.addAll(part);
         }
         return results;
     }
 
+    /** The OCR worker pool, e.g. for its per-worker utilization. */
+    public synchronized OcrWorkerPool ocrPool() {
+        if (ocrPool == null) {
+            int size = resolveOcrWorkers();
+            ocrPool = new OcrWorkerPool(size, size * OCR_QUEUE_PER_WORKER);
+        }
+        return ocrPool;
+    }
+
+    /** Trims and scales crops for the engines; also counts the bytes it saves. */
+    public OcrPreprocessor preprocessor() {
+        return PREPROCESSOR;
+    }
+
+    /** Results by crop content, for its hit and miss counts. */
+    public OcrCache ocrCache() {
+        return OCR_CACHE;
+    }
+
+    // Crops are preprocessed for the engine first, so the cache key covers exactly what the engine would see.
+    // Crops seen before, under the same engine and language, are answered from the cache; only the rest
+    // reach the engine
+    private List<OcrResult> ocrChunk(OcrWorkerPool.Slot slot, List<BufferedImage> crops, int offset,
+            ObjIntConsumer<OcrResult> listener) throws Exception {
+        String language = System.getProperty("OCR_LANGUAGE", MangaOcrEngine.LANGUAGE);
+        OcrEngine engine = engines.forLanguage(language);
+        OcrResult[] results = new OcrResult[crops.size()];
+        List<Integer> missing = new ArrayList<>();
+        List<GrayImage> missingGray = new ArrayList<>();
+        List<String> missingKeys = new ArrayList<>();
+        for (int i = 0; i < crops.size(); i++) {
+            long start = System.nanoTime();
+            GrayImage gray = PREPROCESSOR.apply(GrayImage.of(crops.get(i)), engine.name());
+            String key = OcrCache.key(gray, engine.name(), language);
+            String cached = OCR_CACHE.get(key);
+            if (cached != null) {
+                results[i] = new OcrResult(cached, System.nanoTime() - start);
+                if (listener != null && !slot.job().isCancelled()) listener.accept(results[i], offset + i);
+            } else {
+                missing.add(i);
+                missingGray.add(gray);
+                missingKeys.add(key);
+            }
+        }
+        if (!missing.isEmpty()) {
+            Exception[] failure = new Exception[1];
+            List<OcrResult> fresh = recognize(slot, engine, missingGray, language, failure);
+            for (int j = 0; j < missing.size(); j++) {
+                if (fresh.get(j) == null) continue;
+                results[missing.get(j)] = fresh.get(j);
+                OCR_CACHE.put(missingKeys.get(j), fresh.get(j).text());
+                if (listener != null && !slot.job().isCancelled()) listener.accept(fresh.get(j), offset + missing.get(j));
+            }
+            if (failure[0] != null) throw failure[0];
+        }
+        return Arrays.asList(results);
+    }
+
+    // A crop that fails inside a batch is tried once more alone. If that fails too, its entry is null and the
+    // first such error goes into failure[0], so the rest of the batch is still cached and reported
+    private List<OcrResult> recognize(OcrWorkerPool.Slot slot, OcrEngine engine, List<GrayImage> crops, String language,
+            Exception[] failure) throws Exception {
+        if (crops.size() > 1 && !TEMP_FILE_HANDOFF) {
+            long start = System.nanoTime();
+            List<String> raw = engine.recognizeBatch(slot, crops, language);
+            if (raw != null) {
+                long share = (System.nanoTime() - start) / crops.size();
+                List<OcrResult> results = new ArrayList<>(crops.size());
+                for (int i = 0; i < crops.size(); i++) {
+                    if (raw.get(i) != null) {
+                        results.add(new OcrResult(extractOcrText(raw.get(i)), share));
+                        continue;
+                    }
+                    slot.job().checkActive();
+                    long alone = System.nanoTime();
+                    try {
+                        String text = ocrImage(slot, engine, crops.get(i), language);
+                        results.add(new OcrResult(text, System.nanoTime() - alone));
+                    } catch (Exception e) {
+                        if (failure[0] == null) failure[0] = e;
+                        results.add(null);
+                    }
+                }
+                return results;
+            }
+        }
+        List<OcrResult> results = new ArrayList<>(crops.size());
+        for (int i = 0; i < crops.size(); i++) {
+            slot.job().checkActive();
+            long start = System.nanoTime();
+            String text = ocrImage(slot, engine, crops.get(i), language);
+            results.add(new OcrResult(text, System.nanoTime() - start));
+        }
+        return results;
+    }
+
+    // Crops go to the engines in memory as grayscale: raw over the manga-ocr worker pipe, PGM on tesseract's
+    // stdin. PNG temp files are forced with -Dmangaui.ocrTempFiles=true.
+    private String ocrImage(OcrWorkerPool.Slot slot, OcrEngine engine, GrayImage gray, String language) throws Exception {
+        if (!TEMP_FILE_HANDOFF) return extractOcrText(engine.recognize(slot, gray, language));
+        File temp = File.createTempFile("mangaocr-bubble-", ".png");
+        ImageIO.write(gray.toBufferedImage(), "png", temp);
+        try {
+            return extractOcrText(engine.recognizeFile(slot, temp.getAbsolutePath(), language));
+        } finally {
+            try { Files.deleteIfExists(temp.toPath()); } catch (IOException ignored) {}
+        }
+    }
+
     public List<Rectangle> detectBubbles(BufferedImage capture) {
-        BubbleDetector detector = new BubbleDetector();
-        return detector.detectBubbles(capture);
+        IncrementalDetector detector = DETECTOR.get();
+        detector.detector().setParallel((long) capture.getWidth() * capture.getHeight() >= PARALLEL_DETECT_MIN_PIXELS);
+        return detector.detect(capture);
     }
 
     private String extractOcrText(String raw) {
@@ -113,125 +315,39 @@ public class MangaOcrService {
         }
     }
 
-    private String runMangaOcr(String imagePath) throws Exception {
-        String language = System.getProperty("OCR_LANGUAGE", "Japanese (manga-ocr)");
-        
-        if (language.equals("Japanese (manga-ocr)")) {
-            return runMangaOcrJapanese(imagePath);
-        } else {
-            return runTesseractOcr(imagePath, language);
-        }
-    }
-    
-    private String runMangaOcrJapanese(String imagePath) throws Exception {
-        String pythonCmd = resolvePythonCommand();
-        List<String> command = new ArrayList<>();
-        command.add(pythonCmd);
-        command.add("-c");
-        command.add("import sys; from PIL import Image; from manga_ocr import MangaOcr; mocr=MangaOcr(); img=Image.open(sys.argv[1]); print(mocr(img))");
-        command.add(imagePath);
-
-        ProcessBuilder pb = new ProcessBuilder(command);
-        pb.redirectErrorStream(true);
-        Process process = pb.start();
-        try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
-            StringBuilder sb = new StringBuilder();
-            String line;
-            while ((line = reader.readLine()) != null) {
-                sb.append(line).append('\n');
-            }
-            int code = process.waitFor();
-            if (code != 0) {
-                throw new RuntimeException("manga-ocr exited with code " + code + ":\n" + sb);
-            }
-            return sb.toString().trim();
+    /**
+     * Probes the OCR engines in the background, and starts loading the engine for the selected language in
+     * every worker, so the first selection waits for neither. Failures are left for the first real OCR call
+     * to report.
+     */
+    public void warmUp() {
+        engines.discover();
+        OcrEngine engine = engines.forLanguage(System.getProperty("OCR_LANGUAGE", MangaOcrEngine.LANGUAGE));
+        OcrWorkerPool pool = ocrPool();
+        for (int i = 0; i < pool.size(); i++) {
+            OcrWorkerPool.Slot slot = pool.slot(i);
+            Thread t = new Thread(() -> {
+                try {
+                    engine.warmUp(slot);
+                } catch (Exception ignored) {}
+            }, "ocr-warmup-" + i);
+            t.setDaemon(true);
+            t.start();
         }
     }
-    
-    private String runTesseractOcr(String imagePath, String language) throws Exception {
-        String tesseractCmd = resolveTesseractCommand();
-        String langCode = getTesseractLanguageCode(language);
-        
-        List<String> command = new ArrayList<>();
-        command.add(tesseractCmd);
-        command.add(imagePath);
-        command.add("stdout");
-        command.add("-l");
-        command.add(langCode);
-        command.add("--psm");
-        command.add("6"); // Assume uniform block of text
-
-        ProcessBuilder pb = new ProcessBuilder(command);
-        pb.redirectErrorStream(true);
-        Process process = pb.start();
-        try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
-            StringBuilder sb = new StringBuilder();
-            String line;
-            while ((line = reader.readLine()) != null) {
-                sb.append(line).append('\n');
-            }
-            int code = process.waitFor();
-            if (code != 0) {
-                throw new RuntimeException("tesseract exited with code " + code + ":\n" + sb);
-            }
-            return sb.toString().trim();
-        }
-    }
-    
-    private String getTesseractLanguageCode(String language) {
-        switch (language) {
-            case "Portuguese (Tesseract)": return "por";
-            case "English (Tesseract)": return "eng";
-            case "Spanish (Tesseract)": return "spa";
-            case "French (Tesseract)": return "fra";
-            case "German (Tesseract)": return "deu";
-            default: return "eng";
-        }
-    }
-    
-    private String resolveTesseractCommand() {
-        String configured = System.getProperty("TESSERACT_CMD", System.getenv().getOrDefault("TESSERACT_CMD", ""));
-        if (configured != null && !configured.isBlank()) {
-            return configured;
-        }
-        // Try common tesseract command names
-        String[] candidates = new String[] {"tesseract", "tesseract-ocr"};
-        for (String c : candidates) {
-            try {
-                ProcessBuilder pb = new ProcessBuilder(c, "--version");
-                Process process = pb.start();
-                int code = process.waitFor();
-                if (code == 0) {
-                    return c;
-                }
-            } catch (Exception ignored) {}
-        }
-        return "tesseract"; // fallback
+
+    public OcrEngineRegistry engines() {
+        return engines;
     }
 
-    private String resolvePythonCommand() {
-        String configured = System.getProperty("PYTHON_CMD", System.getenv().getOrDefault("PYTHON_CMD", ""));
+    // OCR_WORKERS setting, else half the cores (at most 4): every manga-ocr worker holds its own model copy
+    private int resolveOcrWorkers() {
+        String configured = System.getProperty("OCR_WORKERS", System.getenv().getOrDefault("OCR_WORKERS", ""));
         if (configured != null && !configured.isBlank()) {
-            return configured;
-        }
-        // Auto-detect local .venv
-        String projectDir = System.getProperty("user.dir", "");
-        String[] candidates = new String[] {
-                projectDir + File.separator + ".venv" + File.separator + "bin" + File.separator + "python",
-                projectDir + File.separator + "venv" + File.separator + "bin" + File.separator + "python",
-                ".venv/bin/python",
-                "venv/bin/python",
-                "python3",
-                "python"
-        };
-        for (String c : candidates) {
-            File f = new File(c);
-            if ((c.equals("python3") || c.equals("python")) || (f.exists() && f.canExecute())) {
-                return c;
-            }
+            try {
+                return Math.max(1, Integer.parseInt(configured.trim()));
+            } catch (NumberFormatException ignored) {}
         }
-        return "python3";
+        return Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() / 2));
     }
 }
-
-
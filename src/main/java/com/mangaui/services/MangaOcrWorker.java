@@ -0,0 +1,329 @@
+package com.mangaui.services;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A long-lived Python process that loads MangaOcr once and then recognizes images on request, instead of
+ * paying the model load for every bubble. Requests and responses are length-prefixed frames over the
+ * process's stdin/stdout; the protocol is described in {@code manga_ocr_worker.py}.
+ *
+ * The process starts lazily and is warmed up before the first request returns. A request that finds the
+ * process dead, or kills it, restarts it and is retried once; after a long idle spell the process is pinged
+ * first, and restarted if it does not answer. Calls that overrun their deadline kill the process. All methods
+ * are synchronized: a worker handles one request at a time.
+ */
+public final class MangaOcrWorker implements AutoCloseable {
+    private static final String SCRIPT = "manga_ocr_worker.py";
+    // First start may download the model, so it gets far longer than a single recognition
+    private static final long STARTUP_TIMEOUT_MS = TimeUnit.MINUTES.toMillis(10);
+    private static final long REQUEST_TIMEOUT_MS = Long.getLong("mangaui.ocrTimeoutMs", TimeUnit.SECONDS.toMillis(60));
+    private static final long PING_TIMEOUT_MS = TimeUnit.SECONDS.toMillis(5);
+    // A worker idle for this long is pinged before it gets a request, so a hung process costs the ping's
+    // timeout instead of the request's
+    private static final long PING_AFTER_IDLE_MS = TimeUnit.SECONDS.toMillis(30);
+    private static final int STDERR_TAIL_LINES = 20;
+    private static final byte[] EMPTY = new byte[0];
+
+    private static final ScheduledExecutorService WATCHDOG = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "manga-ocr-watchdog");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final String pythonCommand;
+    private final int threads;
+    private final Deque<String> stderrTail = new ArrayDeque<>();
+    private volatile Process process;
+    private DataOutputStream out;
+    private DataInputStream in;
+    private Thread shutdownHook;
+    private boolean started;
+    private int restarts;
+    private long lastUsedNanos;
+
+    public MangaOcrWorker(String pythonCommand) {
+        this(pythonCommand, 0);
+    }
+
+    /** A worker whose model runs on at most {@code threads} CPU threads; 0 leaves the library default. */
+    public MangaOcrWorker(String pythonCommand, int threads) {
+        this.pythonCommand = pythonCommand;
+        this.threads = threads;
+    }
+
+    public String pythonCommand() {
+        return pythonCommand;
+    }
+
+    /** Starts the process if it is not running and waits until the model has loaded. */
+    public synchronized void start() throws IOException {
+        if (isAlive()) return;
+        stop();
+        ProcessBuilder pb = new ProcessBuilder(pythonCommand, "-u", "-c", loadScript());
+        if (threads > 0) {
+            // PyTorch sizes its intra-op pool from these when it loads
+            pb.environment().put("OMP_NUM_THREADS", Integer.toString(threads));
+            pb.environment().put("MKL_NUM_THREADS", Integer.toString(threads));
+        }
+        process = pb.start();
+        out = new DataOutputStream(new BufferedOutputStream(process.getOutputStream()));
+        in = new DataInputStream(new BufferedInputStream(process.getInputStream()));
+        drainStderr(process);
+        started = true;
+        if (shutdownHook == null) {
+            // Not close(): the hook must not wait for the lock held by a request in flight
+            shutdownHook = new Thread(() -> {
+                Process p = process;
+                if (p != null) p.destroy();
+            }, "manga-ocr-shutdown");
+            Runtime.getRuntime().addShutdownHook(shutdownHook);
+        }
+        try {
+            expectOk(readResponse(STARTUP_TIMEOUT_MS));
+        } catch (IOException e) {
+            stop();
+            throw e;
+        }
+        lastUsedNanos = System.nanoTime();
+    }
+
+    /** Recognizes an in-memory grayscale image; no file is involved. */
+    public synchronized String recognize(GrayImage image) throws IOException {
+        byte[] header = ByteBuffer.allocate(8).putInt(image.width()).putInt(image.height()).array();
+        return call('G', header, image.pixels(), image.width() * image.height());
+    }
+
+    /**
+     * Recognizes all images in one request, which the worker runs as a single batched forward pass. Texts come
+     * back in image order, with null for each image the worker reported an error for; the others are kept.
+     */
+    public synchronized List<String> recognizeBatch(List<GrayImage> images) throws IOException {
+        int size = 4;
+        for (GrayImage image : images) size += 8 + image.width() * image.height();
+        ByteBuffer payload = ByteBuffer.allocate(size).putInt(images.size());
+        for (GrayImage image : images) {
+            payload.putInt(image.width()).putInt(image.height()).put(image.pixels(), 0, image.width() * image.height());
+        }
+        // The whole batch is computed before the first answer, so the deadline scales with its size
+        long timeout = REQUEST_TIMEOUT_MS * Math.max(1, images.size());
+        List<Response> responses = exchange('B', EMPTY, payload.array(), size, images.size(), timeout);
+        List<String> texts = new ArrayList<>(responses.size());
+        for (Response r : responses) texts.add(r.status == 'O' ? r.text : null);
+        return texts;
+    }
+
+    /** Recognizes the image file at {@code imagePath}. */
+    public synchronized String recognizeFile(String imagePath) throws IOException {
+        byte[] path = imagePath.getBytes(StandardCharsets.UTF_8);
+        return call('F', EMPTY, path, path.length);
+    }
+
+    /**
+     * Round trip to a running worker; false if it is not running or does not answer in time, in which case the
+     * process is stopped and the next request starts a new one. Requests ping by themselves after an idle spell.
+     */
+    public synchronized boolean ping() {
+        if (!isAlive()) return false;
+        try {
+            writeFrame('P', EMPTY, EMPTY, 0);
+            if (!"pong".equals(expectOk(readResponse(PING_TIMEOUT_MS)))) {
+                stop();
+                return false;
+            }
+            lastUsedNanos = System.nanoTime();
+            return true;
+        } catch (IOException e) {
+            stop();
+            return false;
+        }
+    }
+
+    public synchronized boolean isAlive() {
+        return process != null && process.isAlive();
+    }
+
+    /** How often the process had to be restarted after dying. */
+    public synchronized int restarts() {
+        return restarts;
+    }
+
+    /** Asks the worker to quit, then makes sure the process is gone. */
+    @Override
+    public synchronized void close() {
+        if (isAlive()) {
+            try {
+                writeFrame('Q', EMPTY, EMPTY, 0);
+                process.waitFor(2, TimeUnit.SECONDS);
+            } catch (IOException ignored) {
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        stop();
+        if (shutdownHook != null) {
+            try {
+                Runtime.getRuntime().removeShutdownHook(shutdownHook);
+            } catch (IllegalStateException ignored) {
+                // Already shutting down
+            }
+            shutdownHook = null;
+        }
+    }
+
+    private String call(char kind, byte[] header, byte[] body, int bodyLength) throws IOException {
+        return expectOk(exchange(kind, header, body, bodyLength, 1, REQUEST_TIMEOUT_MS).get(0));
+    }
+
+    // One request and its {@code responses} answers, with a single retry on a fresh process. Errors reported
+    // by the worker itself (status E) are returned, not retried: the process is fine, the image is not.
+    private List<Response> exchange(char kind, byte[] header, byte[] body, int bodyLength, int responses, long timeoutMs)
+            throws IOException {
+        IOException failure = null;
+        if (isAlive() && System.nanoTime() - lastUsedNanos > TimeUnit.MILLISECONDS.toNanos(PING_AFTER_IDLE_MS)) {
+            // A worker that does not answer is stopped by ping() and restarted below
+            ping();
+        }
+        for (int attempt = 0; attempt < 2; attempt++) {
+            if (!isAlive()) {
+                if (started) restarts++;
+                start();
+            }
+            try {
+                writeFrame(kind, header, body, bodyLength);
+                List<Response> result = new ArrayList<>(responses);
+                for (int i = 0; i < responses; i++) result.add(readResponse(timeoutMs));
+                lastUsedNanos = System.nanoTime();
+                return result;
+            } catch (TimeoutException e) {
+                // A hung request would most likely hang again, so it only costs the process
+                stop();
+                throw e;
+            } catch (IOException e) {
+                failure = e;
+                stop();
+            }
+        }
+        throw failure;
+    }
+
+    // Payload is header followed by the first bodyLength bytes of body, written without concatenating them
+    private void writeFrame(char kind, byte[] header, byte[] body, int bodyLength) throws IOException {
+        out.writeInt(1 + header.length + bodyLength);
+        out.writeByte(kind);
+        out.write(header);
+        out.write(body, 0, bodyLength);
+        out.flush();
+    }
+
+    // Reads one response frame; a watchdog kills the process if it does not arrive in time, which turns the
+    // blocked read into an EOF.
+    private Response readResponse(long timeoutMs) throws IOException {
+        Process p = process;
+        AtomicBoolean timedOut = new AtomicBoolean();
+        ScheduledFuture<?> kill = WATCHDOG.schedule(() -> {
+            timedOut.set(true);
+            p.destroyForcibly();
+        }, timeoutMs, TimeUnit.MILLISECONDS);
+        try {
+            int length = in.readInt();
+            if (length < 1) throw new IOException("manga-ocr worker sent an empty frame");
+            byte[] frame = new byte[length];
+            in.readFully(frame);
+            return new Response((char) frame[0], new String(frame, 1, length - 1, StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            // Killing the process closes its streams, so the read fails with EOF or "Stream closed"
+            if (timedOut.get()) {
+                throw new TimeoutException("manga-ocr worker timed out after " + timeoutMs + " ms" + stderrSummary());
+            }
+            throw new IOException("manga-ocr worker exited" + stderrSummary(), e);
+        } finally {
+            kill.cancel(false);
+        }
+    }
+
+    private String expectOk(Response response) throws IOException {
+        if (response.status != 'O') throw new WorkerException("manga-ocr failed: " + response.text);
+        return response.text;
+    }
+
+    private void stop() {
+        if (process != null) {
+            process.destroyForcibly();
+        }
+        process = null;
+        out = null;
+        in = null;
+    }
+
+    private void drainStderr(Process p) {
+        Thread t = new Thread(() -> {
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(p.getErrorStream(), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    synchronized (stderrTail) {
+                        if (stderrTail.size() == STDERR_TAIL_LINES) stderrTail.removeFirst();
+                        stderrTail.addLast(line);
+                    }
+                }
+            } catch (IOException ignored) {
+                // Process is gone
+            }
+        }, "manga-ocr-stderr");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    private String stderrSummary() {
+        synchronized (stderrTail) {
+            return stderrTail.isEmpty() ? "" : ":\n" + String.join("\n", stderrTail);
+        }
+    }
+
+    private static String loadScript() throws IOException {
+        try (InputStream s = MangaOcrWorker.class.getResourceAsStream(SCRIPT)) {
+            if (s == null) throw new IOException("Missing resource " + SCRIPT);
+            return new String(s.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+
+    private static final class Response {
+        final char status;
+        final String text;
+
+        Response(char status, String text) {
+            this.status = status;
+            this.text = text;
+        }
+    }
+
+    private static final class TimeoutException extends IOException {
+        TimeoutException(String message) {
+            super(message);
+        }
+    }
+
+    // Failure reported by a healthy worker, as opposed to a broken pipe or a dead process
+    private static final class WorkerException extends IOException {
+        WorkerException(String message) {
+            super(message);
+        }
+    }
+}
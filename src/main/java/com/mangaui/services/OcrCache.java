@@ -0,0 +1,212 @@
+package com.mangaui.services;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * OCR results keyed by the content of the crop: a 128-bit hash of the grayscale pixels the engine would see,
+ * plus the engine and language. Recent entries live in a size-bounded LRU map; every new entry is also
+ * appended to a log file under {@code ~/.mangaui}, which is read back on first use so results survive
+ * restarts. The log is rewritten with just the live entries once it has grown well past the map's size.
+ */
+public final class OcrCache {
+    private static final int DEFAULT_MAX_ENTRIES = 5000;
+    // Rewrite the log when it holds this many times more lines than the map can keep
+    private static final int COMPACT_FACTOR = 4;
+
+    private final int maxEntries;
+    private final Path logFile;
+    private final LinkedHashMap<String, String> entries;
+    private BufferedWriter log;
+    private boolean loaded;
+    private int logLines;
+    private long hits;
+    private long misses;
+
+    public OcrCache() {
+        this(DEFAULT_MAX_ENTRIES, new File(System.getProperty("user.home"), ".mangaui").toPath().resolve("ocr-cache.tsv"));
+    }
+
+    /** A cache of at most {@code maxEntries} in memory, persisted to {@code logFile}; null keeps it in memory. */
+    public OcrCache(int maxEntries, Path logFile) {
+        this.maxEntries = maxEntries;
+        this.logFile = logFile;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+                return size() > OcrCache.this.maxEntries;
+            }
+        };
+    }
+
+    public static String key(GrayImage image, String engine, String language) {
+        return hash(image) + '|' + engine + '|' + language;
+    }
+
+    /** The cached text for {@code key}, or null. */
+    public synchronized String get(String key) {
+        load();
+        String text = entries.get(key);
+        if (text == null) {
+            misses++;
+        } else {
+            hits++;
+        }
+        return text;
+    }
+
+    public synchronized void put(String key, String text) {
+        load();
+        if (text.equals(entries.put(key, text))) return;
+        if (logFile == null) return;
+        try {
+            if (log == null) {
+                Files.createDirectories(logFile.getParent());
+                log = Files.newBufferedWriter(logFile, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            }
+            log.write(escape(key));
+            log.write('\t');
+            log.write(escape(text));
+            log.newLine();
+            log.flush();
+            logLines++;
+            if (logLines > COMPACT_FACTOR * maxEntries) compact();
+        } catch (IOException ignored) {
+            // The cache still works in memory; the next put tries the file again
+            closeLog();
+        }
+    }
+
+    public synchronized long hits() { return hits; }
+
+    public synchronized long misses() { return misses; }
+
+    public synchronized int size() { return entries.size(); }
+
+    // Later lines win, so replaying the whole log in order leaves the newest text for every key. A torn last
+    // line from a crash is cut off first: read, it would yield a partial text, and the next append would be
+    // glued onto it and lost
+    private void load() {
+        if (loaded) return;
+        loaded = true;
+        if (logFile == null || !Files.exists(logFile)) return;
+        try {
+            truncateTornLine(logFile);
+        } catch (IOException ignored) {
+            return;
+        }
+        try (BufferedReader reader = Files.newBufferedReader(logFile, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                logLines++;
+                int tab = line.indexOf('\t');
+                if (tab < 0) continue;
+                entries.put(unescape(line.substring(0, tab)), unescape(line.substring(tab + 1)));
+            }
+        } catch (IOException ignored) {
+            // Start from whatever was read
+        }
+    }
+
+    // Cuts the file after its last newline
+    private static void truncateTornLine(Path file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+            byte[] buf = new byte[4096];
+            long end = raf.length();
+            while (end > 0) {
+                int n = (int) Math.min(buf.length, end);
+                raf.seek(end - n);
+                raf.readFully(buf, 0, n);
+                int i = n - 1;
+                while (i >= 0 && buf[i] != '\n') i--;
+                if (i >= 0) {
+                    end = end - n + i + 1;
+                    break;
+                }
+                end -= n;
+            }
+            if (end < raf.length()) raf.setLength(end);
+        }
+    }
+
+    private void compact() throws IOException {
+        closeLog();
+        Path tmp = logFile.resolveSibling(logFile.getFileName() + ".tmp");
+        try (BufferedWriter out = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+            for (Map.Entry<String, String> e : entries.entrySet()) {
+                out.write(escape(e.getKey()));
+                out.write('\t');
+                out.write(escape(e.getValue()));
+                out.newLine();
+            }
+        }
+        Files.move(tmp, logFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        logLines = entries.size();
+    }
+
+    private void closeLog() {
+        if (log != null) {
+            try { log.close(); } catch (IOException ignored) {}
+        }
+        log = null;
+    }
+
+    // Two independent 64-bit multiply-rotate hashes over the pixels, eight bytes at a time
+    private static String hash(GrayImage image) {
+        byte[] pixels = image.pixels();
+        int n = image.width() * image.height();
+        ByteBuffer buf = ByteBuffer.wrap(pixels, 0, n).order(ByteOrder.LITTLE_ENDIAN);
+        long h1 = 0x9E3779B97F4A7C15L ^ image.width();
+        long h2 = 0xC2B2AE3D27D4EB4FL ^ image.height();
+        int i = 0;
+        for (; i + 8 <= n; i += 8) {
+            long v = buf.getLong(i);
+            h1 = Long.rotateLeft(h1 ^ v * 0x87C37B91114253D5L, 31) * 0x4CF5AD432745937FL;
+            h2 = Long.rotateLeft(h2 + v * 0x52DCE729L, 27) * 0x9E3779B97F4A7C15L;
+        }
+        for (; i < n; i++) {
+            h1 = (h1 ^ (pixels[i] & 0xFF)) * 0x100000001B3L;
+            h2 = (h2 + (pixels[i] & 0xFF)) * 0xC2B2AE3D27D4EB4FL;
+        }
+        return String.format("%016x%016x", mix(h1 ^ n), mix(h2 ^ h1));
+    }
+
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        h *= 0xC4CEB9FE1A85EC53L;
+        return h ^ (h >>> 33);
+    }
+
+    static String escape(String s) {
+        return s.replace("\\", "\\\\").replace("\t", "\\t").replace("\n", "\\n").replace("\r", "\\r");
+    }
+
+    static String unescape(String s) {
+        if (s.indexOf('\\') < 0) return s;
+        StringBuilder sb = new StringBuilder(s.length());
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '\\' && i + 1 < s.length()) {
+                char next = s.charAt(++i);
+                sb.append(next == 't' ? '\t' : next == 'n' ? '\n' : next == 'r' ? '\r' : next);
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+}
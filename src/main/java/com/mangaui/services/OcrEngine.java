@@ -0,0 +1,34 @@
+package com.mangaui.services;
+
+import java.util.List;
+
+/**
+ * An OCR backend. One instance per engine is shared by all pool workers; anything a worker keeps between
+ * requests, such as its manga-ocr process, lives in its {@link OcrWorkerPool.Slot}. Recognition methods
+ * return the engine's raw output.
+ */
+public interface OcrEngine {
+    String name();
+
+    /** Whether this engine handles the {@code OCR_LANGUAGE} setting {@code language}. */
+    boolean supports(String language);
+
+    /**
+     * Resolves the engine's command and capabilities. {@link OcrEngineRegistry#discover()} runs it once in the
+     * background; engines re-probe by themselves only when their command setting changes.
+     */
+    void probe();
+
+    /** Gets {@code slot} ready for this engine ahead of its first request. */
+    default void warmUp(OcrWorkerPool.Slot slot) throws Exception {}
+
+    String recognize(OcrWorkerPool.Slot slot, GrayImage image, String language) throws Exception;
+
+    /**
+     * Texts for all images in image order, or null when they cannot be done in one request. An entry is null
+     * for an image the engine failed on within the batch; the caller then recognizes that image on its own.
+     */
+    List<String> recognizeBatch(OcrWorkerPool.Slot slot, List<GrayImage> images, String language) throws Exception;
+
+    String recognizeFile(OcrWorkerPool.Slot slot, String imagePath, String language) throws Exception;
+}
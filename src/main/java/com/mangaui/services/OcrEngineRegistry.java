@@ -0,0 +1,48 @@
+package com.mangaui.services;
+
+import java.util.List;
+
+/**
+ * The available OCR engines and which one serves each {@code OCR_LANGUAGE}. {@link #discover()} probes them
+ * all once on a background thread at startup; a request that arrives while its engine is still being probed
+ * waits for that probe instead of starting its own.
+ */
+public final class OcrEngineRegistry {
+    private final List<OcrEngine> engines;
+
+    public OcrEngineRegistry() {
+        this(List.of(new MangaOcrEngine(), new TesseractEngine()));
+    }
+
+    /** Engines in lookup order; the last one also serves languages no engine claims. */
+    public OcrEngineRegistry(List<OcrEngine> engines) {
+        if (engines.isEmpty()) throw new IllegalArgumentException("No OCR engines");
+        this.engines = List.copyOf(engines);
+    }
+
+    public List<OcrEngine> engines() {
+        return engines;
+    }
+
+    /** Probes every engine in the background. */
+    public void discover() {
+        Thread t = new Thread(() -> {
+            for (OcrEngine engine : engines) {
+                try {
+                    engine.probe();
+                } catch (RuntimeException ignored) {
+                    // The engine reports it again on first use
+                }
+            }
+        }, "ocr-engine-discovery");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    public OcrEngine forLanguage(String language) {
+        for (OcrEngine engine : engines) {
+            if (engine.supports(language)) return engine;
+        }
+        return engines.get(engines.size() - 1);
+    }
+}
@@ -0,0 +1,109 @@
+package com.mangaui.services;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Handle for one OCR request that can be cancelled, and that cancels itself when its deadline passes.
+ * Stopping a job skips its crops no worker has started yet, kills its running tesseract processes and fails
+ * {@link #result()} right away, so the workers are free for the next request.
+ *
+ * A manga-ocr request already in flight is left to finish: killing the worker would cost the next request a
+ * model load, which takes far longer than one batch. Its texts still go into the OCR cache, but are not
+ * reported to the cancelled job's listener.
+ */
+public final class OcrJob {
+    /** For work that is not part of any job: never stops. */
+    public static final OcrJob NONE = new OcrJob(0);
+
+    private static final ScheduledExecutorService DEADLINES = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "ocr-job-deadline");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final long timeoutMs;
+    private final CompletableFuture<List<String>> result = new CompletableFuture<>();
+    private final Set<Process> processes = ConcurrentHashMap.newKeySet();
+    private final ScheduledFuture<?> deadline;
+    private volatile boolean cancelled;
+    private volatile boolean timedOut;
+
+    /** A job that times out after {@code timeoutMs}; 0 or less means no deadline. */
+    public OcrJob(long timeoutMs) {
+        this.timeoutMs = timeoutMs;
+        this.deadline = timeoutMs > 0 ? DEADLINES.schedule(() -> stop(true), timeoutMs, TimeUnit.MILLISECONDS) : null;
+    }
+
+    public void cancel() {
+        stop(false);
+    }
+
+    /** True once cancelled or timed out. */
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    public boolean isTimedOut() {
+        return timedOut;
+    }
+
+    /** Texts in box order; fails with a CancellationException or TimeoutException if the job is stopped. */
+    public CompletableFuture<List<String>> result() {
+        return result;
+    }
+
+    /** Throws the job's CancellationException or TimeoutException once it has been stopped. */
+    public void checkActive() throws TimeoutException {
+        if (!cancelled) return;
+        if (timedOut) throw new TimeoutException("OCR took longer than " + timeoutMs + " ms");
+        throw new CancellationException("OCR cancelled");
+    }
+
+    /** Kills {@code process} if the job is stopped while it runs; engines unregister it when it is done. */
+    public void register(Process process) {
+        if (this == NONE) return;
+        processes.add(process);
+        if (cancelled) process.destroyForcibly();
+    }
+
+    public void unregister(Process process) {
+        processes.remove(process);
+    }
+
+    void complete(List<String> texts) {
+        if (deadline != null) deadline.cancel(false);
+        result.complete(texts);
+    }
+
+    void fail(Throwable failure) {
+        if (deadline != null) deadline.cancel(false);
+        result.completeExceptionally(failure);
+    }
+
+    private void stop(boolean timeout) {
+        if (this == NONE) return;
+        synchronized (this) {
+            if (cancelled) return;
+            timedOut = timeout;
+            cancelled = true;
+        }
+        if (deadline != null) deadline.cancel(false);
+        for (Process p : processes) {
+            p.destroyForcibly();
+        }
+        try {
+            checkActive();
+        } catch (Exception e) {
+            result.completeExceptionally(e);
+        }
+    }
+}
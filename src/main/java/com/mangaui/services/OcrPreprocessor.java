@@ -0,0 +1,220 @@
+package com.mangaui.services;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Shrinks grayscale crops before they go to an OCR engine:
+ * <ul>
+ *   <li>trims the margins around the text: the bounding box of all dark components except bubble outlines and
+ *   panel borders cut by the crop, plus a little padding;</li>
+ *   <li>downscales to what the engine can use: manga-ocr resizes every input to 224x224, so larger crops are
+ *   scaled until their shorter side is 224; tesseract works best with glyphs around 32 px high, so crops whose
+ *   median glyph height is well above that are scaled down to it;</li>
+ *   <li>optionally binarizes tesseract input with an Otsu threshold.</li>
+ * </ul>
+ * Each step can be switched off with {@code -Dmangaui.ocrTrim=false}, {@code -Dmangaui.ocrDownscale=false};
+ * binarizing is off unless {@code -Dmangaui.ocrBinarize=true}. Crops are never scaled up.
+ */
+public final class OcrPreprocessor {
+    // Dark ink. The same level as BubbleDetector's dark mask, but applied to the Pillow (BT.601) gray the
+    // engines get rather than the detector's Rec. 709 luminance, so the two masks differ on coloured pixels.
+    // That is why BubbleDetector#darkIntegral() isn't used here; besides, by the time a pool worker
+    // preprocesses a crop, the detecting thread's workspace may already hold the next capture
+    private static final int DARK_MAX = LuminanceKernel.DARK_MAX;
+    private static final int PAD = 6;
+    // Dark components smaller than this are speckle, not text
+    private static final int MIN_GLYPH_AREA = 4;
+    private static final int MANGA_OCR_INPUT = 224;
+    private static final int TESSERACT_GLYPH_HEIGHT = 32;
+    // Only glyphs at least this much taller than the target are worth scaling down
+    private static final double TESSERACT_SCALE_SLACK = 1.5;
+
+    private final boolean trim;
+    private final boolean downscale;
+    private final boolean binarize;
+    private final AtomicLong crops = new AtomicLong();
+    private final AtomicLong bytesIn = new AtomicLong();
+    private final AtomicLong bytesOut = new AtomicLong();
+    private final AtomicLong nanos = new AtomicLong();
+
+    public OcrPreprocessor(boolean trim, boolean downscale, boolean binarize) {
+        this.trim = trim;
+        this.downscale = downscale;
+        this.binarize = binarize;
+    }
+
+    public static OcrPreprocessor fromSystemProperties() {
+        return new OcrPreprocessor(
+                Boolean.parseBoolean(System.getProperty("mangaui.ocrTrim", "true")),
+                Boolean.parseBoolean(System.getProperty("mangaui.ocrDownscale", "true")),
+                Boolean.getBoolean("mangaui.ocrBinarize"));
+    }
+
+    /** The crop as {@code engine} (an {@link OcrEngine#name()}) should get it; may be {@code image} itself. */
+    public GrayImage apply(GrayImage image, String engine) {
+        long start = System.nanoTime();
+        GrayImage out = image;
+        boolean tesseract = engine.equals("tesseract");
+        if (trim || (downscale && tesseract)) {
+            Glyphs glyphs = Glyphs.of(out);
+            if (trim) out = glyphs.trim(out);
+            if (downscale && tesseract && glyphs.medianHeight > TESSERACT_GLYPH_HEIGHT * TESSERACT_SCALE_SLACK) {
+                out = scale(out, (double) TESSERACT_GLYPH_HEIGHT / glyphs.medianHeight);
+            }
+        }
+        if (downscale && engine.equals("manga-ocr")) {
+            double s = Math.max((double) MANGA_OCR_INPUT / out.width(), (double) MANGA_OCR_INPUT / out.height());
+            if (s < 1) out = scale(out, s);
+        }
+        if (binarize && tesseract) out = binarize(out);
+        crops.incrementAndGet();
+        bytesIn.addAndGet((long) image.width() * image.height());
+        bytesOut.addAndGet((long) out.width() * out.height());
+        nanos.addAndGet(System.nanoTime() - start);
+        return out;
+    }
+
+    public long crops() { return crops.get(); }
+
+    /** Pixels in before and out after preprocessing, one byte each. */
+    public long bytesIn() { return bytesIn.get(); }
+
+    public long bytesOut() { return bytesOut.get(); }
+
+    public long nanos() { return nanos.get(); }
+
+    // Box filter: every output pixel is the mean of the source pixels it covers
+    static GrayImage scale(GrayImage image, double s) {
+        int w = image.width();
+        int h = image.height();
+        int dw = Math.max(1, (int) Math.round(w * s));
+        int dh = Math.max(1, (int) Math.round(h * s));
+        if (dw >= w && dh >= h) return image;
+        byte[] src = image.pixels();
+        byte[] dst = new byte[dw * dh];
+        int[] sums = new int[dw];
+        int[] x0 = new int[dw + 1];
+        for (int dx = 0; dx <= dw; dx++) x0[dx] = (int) ((long) dx * w / dw);
+        for (int dy = 0; dy < dh; dy++) {
+            int y0 = (int) ((long) dy * h / dh);
+            int y1 = (int) ((long) (dy + 1) * h / dh);
+            Arrays.fill(sums, 0);
+            for (int y = y0; y < y1; y++) {
+                int o = y * w;
+                for (int dx = 0; dx < dw; dx++) {
+                    int sum = 0;
+                    for (int x = x0[dx]; x < x0[dx + 1]; x++) sum += src[o + x] & 0xFF;
+                    sums[dx] += sum;
+                }
+            }
+            int rows = y1 - y0;
+            for (int dx = 0; dx < dw; dx++) {
+                int n = rows * (x0[dx + 1] - x0[dx]);
+                dst[dy * dw + dx] = (byte) ((sums[dx] + n / 2) / n);
+            }
+        }
+        return new GrayImage(dw, dh, dst);
+    }
+
+    static GrayImage binarize(GrayImage image) {
+        byte[] src = image.pixels();
+        int n = image.width() * image.height();
+        int[] histogram = new int[256];
+        for (int i = 0; i < n; i++) histogram[src[i] & 0xFF]++;
+        int threshold = otsu(histogram, n);
+        byte[] dst = new byte[n];
+        for (int i = 0; i < n; i++) dst[i] = (src[i] & 0xFF) > threshold ? (byte) 255 : 0;
+        return new GrayImage(image.width(), image.height(), dst);
+    }
+
+    // Threshold that maximizes the between-class variance of the histogram
+    private static int otsu(int[] histogram, int n) {
+        long total = 0;
+        for (int v = 0; v < 256; v++) total += (long) v * histogram[v];
+        long sumBelow = 0;
+        int countBelow = 0;
+        double best = -1;
+        int threshold = DARK_MAX;
+        for (int t = 0; t < 255; t++) {
+            countBelow += histogram[t];
+            sumBelow += (long) t * histogram[t];
+            int countAbove = n - countBelow;
+            if (countBelow == 0 || countAbove == 0) continue;
+            double meanBelow = (double) sumBelow / countBelow;
+            double meanAbove = (double) (total - sumBelow) / countAbove;
+            double between = (double) countBelow * countAbove * (meanBelow - meanAbove) * (meanBelow - meanAbove);
+            if (between > best) {
+                best = between;
+                threshold = t;
+            }
+        }
+        return threshold;
+    }
+
+    // Dark components of a crop other than frames cut by its edge: their bounding box and median height
+    private static final class Glyphs {
+        int minX = Integer.MAX_VALUE;
+        int minY = Integer.MAX_VALUE;
+        int maxX = -1;
+        int maxY = -1;
+        int medianHeight;
+
+        static Glyphs of(GrayImage image) {
+            int w = image.width();
+            int h = image.height();
+            byte[] pixels = image.pixels();
+            BitMask dark = new BitMask();
+            dark.reset(w, h);
+            for (int y = 0; y < h; y++) {
+                int o = y * w;
+                for (int x = 0; x < w; x++) {
+                    if ((pixels[o + x] & 0xFF) <= DARK_MAX) dark.set(x, y);
+                }
+            }
+            ComponentLabeler labeler = new ComponentLabeler();
+            int count = labeler.label(dark, null);
+            Glyphs glyphs = new Glyphs();
+            int[] heights = new int[count];
+            int kept = 0;
+            for (int c = 0; c < count; c++) {
+                if (labeler.area(c) < MIN_GLYPH_AREA) continue;
+                if (isFrame(labeler, c, w, h)) continue;
+                glyphs.minX = Math.min(glyphs.minX, labeler.minX(c));
+                glyphs.minY = Math.min(glyphs.minY, labeler.minY(c));
+                glyphs.maxX = Math.max(glyphs.maxX, labeler.maxX(c));
+                glyphs.maxY = Math.max(glyphs.maxY, labeler.maxY(c));
+                heights[kept++] = labeler.height(c);
+            }
+            if (kept > 0) {
+                Arrays.sort(heights, 0, kept);
+                glyphs.medianHeight = heights[kept / 2];
+            }
+            return glyphs;
+        }
+
+        // A bubble outline or panel border cut by the crop: touches the edge and spans half the crop or more.
+        // Glyphs cut by a tight crop touch the edge too, but are small, and must stay
+        private static boolean isFrame(ComponentLabeler labeler, int c, int w, int h) {
+            boolean edge = labeler.minX(c) == 0 || labeler.minY(c) == 0 || labeler.maxX(c) == w - 1 || labeler.maxY(c) == h - 1;
+            return edge && (labeler.width(c) * 2 >= w || labeler.height(c) * 2 >= h);
+        }
+
+        // Unchanged when nothing was found, e.g. a blank crop
+        GrayImage trim(GrayImage image) {
+            if (maxX < 0) return image;
+            int x0 = Math.max(0, minX - PAD);
+            int y0 = Math.max(0, minY - PAD);
+            int x1 = Math.min(image.width() - 1, maxX + PAD);
+            int y1 = Math.min(image.height() - 1, maxY + PAD);
+            int w = x1 - x0 + 1;
+            int h = y1 - y0 + 1;
+            if (w == image.width() && h == image.height()) return image;
+            byte[] dst = new byte[w * h];
+            for (int y = 0; y < h; y++) {
+                System.arraycopy(image.pixels(), (y0 + y) * image.width() + x0, dst, y * w, w);
+            }
+            return new GrayImage(w, h, dst);
+        }
+    }
+}
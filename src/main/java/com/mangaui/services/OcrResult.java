@@ -0,0 +1,26 @@
+package com.mangaui.services;
+
+/**
+ * Text recognized in one crop, with the time spent on it. For crops recognized together in one engine
+ * request, the time is that crop's equal share of the request plus its own preparation.
+ */
+public final class OcrResult {
+    private final String text;
+    private final long nanos;
+
+    public OcrResult(String text, long nanos) {
+        this.text = text;
+        this.nanos = nanos;
+    }
+
+    public String text() { return text; }
+
+    public long nanos() { return nanos; }
+
+    public double millis() { return nanos / 1_000_000.0; }
+
+    @Override
+    public String toString() {
+        return String.format("%s (%.1f ms)", text, millis());
+    }
+}
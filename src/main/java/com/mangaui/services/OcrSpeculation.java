@@ -0,0 +1,309 @@
+package com.mangaui.services;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * OCR that starts on every detected bubble while the user is still deciding which ones to process, so that
+ * most texts are known by the time they choose. Meanwhile it runs on at most {@code maxWorkers} pool workers
+ * at once, leaving the other workers and their share of the CPU free, one bubble per pool job so that each
+ * can be cancelled on its own.
+ *
+ * {@link #watch} streams texts as speculation finds them without ending it, which is how the capture flow
+ * shows every bubble while the user still picks. {@link #select} ends the guessing: unselected bubbles are
+ * cancelled, selected ones already read or being read are kept, and all the others go to one batched request
+ * (see {@link MangaOcrService#ocrBubblesAsync}), with its chunking, streaming and deadline.
+ */
+public final class OcrSpeculation {
+    private final BufferedImage capture;
+    private final OcrWorkerPool pool;
+    private final Function<BufferedImage, OcrWorkerPool.Job<OcrResult>> ocr;
+    private final BiFunction<List<Rectangle>, Consumer<BubbleResult>, OcrJob> batch;
+    private final int maxWorkers;
+    private final long timeoutMs;
+    private final List<Box> boxes = new ArrayList<>();
+    private final Deque<Box> speculative = new ArrayDeque<>();
+    private int speculativeRunning;
+    // Speculative OCR only runs until the first selection or cancel()
+    private boolean choosing = true;
+    // Feeds the speculative queue to the pool; only alive while the queue has bubbles
+    private Thread feeder;
+
+    OcrSpeculation(BufferedImage capture, List<Rectangle> boxes, OcrWorkerPool pool,
+            Function<BufferedImage, OcrWorkerPool.Job<OcrResult>> ocr,
+            BiFunction<List<Rectangle>, Consumer<BubbleResult>, OcrJob> batch, int maxWorkers, long timeoutMs) {
+        this.capture = capture;
+        this.pool = pool;
+        this.ocr = ocr;
+        this.batch = batch;
+        this.maxWorkers = maxWorkers;
+        this.timeoutMs = timeoutMs;
+        for (Rectangle box : boxes) {
+            add(box);
+        }
+    }
+
+    public BufferedImage capture() {
+        return capture;
+    }
+
+    /** Starts speculative OCR on one more bubble, e.g. one drawn by hand; ignored once a selection was made. */
+    public synchronized void add(Rectangle box) {
+        if (!choosing || indexOf(box) >= 0) return;
+        Box b = register(box);
+        speculative.add(b);
+        if (feeder == null && maxWorkers > 0) {
+            feeder = new Thread(this::feed, "ocr-speculation");
+            feeder.setDaemon(true);
+            feeder.start();
+        }
+        notifyAll();
+    }
+
+    /** Bubbles whose text is known. */
+    public synchronized int done() {
+        int n = 0;
+        for (Box b : boxes) {
+            if (b.result.isDone() && !b.result.isCompletedExceptionally()) n++;
+        }
+        return n;
+    }
+
+    /**
+     * Streams the texts of {@code watched} to {@code onBubble} as speculation reads them (indices are positions
+     * in {@code watched}), adding bubbles it does not know yet. Speculation goes on: the returned job has no
+     * deadline of its own, and cancelling it only stops the reporting. Once a selection was made this is
+     * {@link #select(List, Consumer)}.
+     */
+    public OcrJob watch(List<Rectangle> watched, Consumer<BubbleResult> onBubble) {
+        List<CompletableFuture<OcrResult>> results = new ArrayList<>(watched.size());
+        synchronized (this) {
+            if (!choosing) return select(watched, onBubble);
+            for (Rectangle box : watched) {
+                add(box);
+                results.add(boxes.get(indexOf(box)).result);
+            }
+        }
+        return view(watched, results, onBubble, new OcrJob(0));
+    }
+
+    /** Like {@link #select(List, Consumer, long)}, with the deadline of {@link MangaOcrService#ocrBubblesAsync}. */
+    public OcrJob select(List<Rectangle> selected, Consumer<BubbleResult> onBubble) {
+        return select(selected, onBubble, timeoutMs);
+    }
+
+    /**
+     * The user's choice: speculation stops, OCR of every other bubble is cancelled, and the returned job
+     * streams the texts of {@code selected} to {@code onBubble} (indices are positions in {@code selected}),
+     * at once for those already read. Selected bubbles not started yet are read in one batch. Cancelling the
+     * job leaves the bubbles running for the next selection; a job that times out cancels them.
+     */
+    public OcrJob select(List<Rectangle> selected, Consumer<BubbleResult> onBubble, long timeoutMs) {
+        OcrJob view = new OcrJob(timeoutMs);
+        List<Box> chosen = new ArrayList<>(selected.size());
+        List<CompletableFuture<OcrResult>> results = new ArrayList<>(selected.size());
+        synchronized (this) {
+            choosing = false;
+            for (Rectangle box : selected) {
+                int i = indexOf(box);
+                chosen.add(i >= 0 ? boxes.get(i) : register(box));
+            }
+            Set<Box> keep = new HashSet<>(chosen);
+            for (Box b : boxes) {
+                if (!keep.contains(b)) drop(b);
+            }
+            speculative.clear();
+            List<Box> missing = new ArrayList<>();
+            for (Box b : chosen) {
+                if (b.result.isCompletedExceptionally()) {
+                    // Failed earlier: try again
+                    b.result = new CompletableFuture<>();
+                    b.attempt = null;
+                }
+                if (!b.result.isDone() && b.attempt == null && !missing.contains(b)) missing.add(b);
+            }
+            if (!missing.isEmpty()) startBatch(missing);
+            for (Box b : chosen) {
+                results.add(b.result);
+            }
+            notifyAll();
+        }
+        view(selected, results, onBubble, view);
+        view.result().whenComplete((done, ex) -> {
+            if (!view.isTimedOut()) return;
+            synchronized (this) {
+                for (Box b : chosen) drop(b);
+            }
+        });
+        return view;
+    }
+
+    // Reports each result to onBubble as it completes, and all texts to the view once every one is in
+    private static OcrJob view(List<Rectangle> rects, List<CompletableFuture<OcrResult>> results,
+            Consumer<BubbleResult> onBubble, OcrJob view) {
+        if (results.isEmpty()) {
+            view.complete(List.of());
+            return view;
+        }
+        String[] texts = new String[results.size()];
+        AtomicInteger remaining = new AtomicInteger(results.size());
+        for (int i = 0; i < results.size(); i++) {
+            int index = i;
+            results.get(i).whenComplete((result, ex) -> {
+                if (view.isCancelled()) return;
+                if (ex != null) {
+                    view.fail(ex);
+                    return;
+                }
+                texts[index] = result.text();
+                if (onBubble != null) onBubble.accept(new BubbleResult(index, rects.get(index), result));
+                if (remaining.decrementAndGet() == 0) view.complete(Arrays.asList(texts));
+            });
+        }
+        return view;
+    }
+
+    /** Stops all OCR for this capture, e.g. when a new one replaces it. */
+    public synchronized void cancel() {
+        choosing = false;
+        for (Box b : boxes) drop(b);
+        speculative.clear();
+        notifyAll();
+    }
+
+    private int indexOf(Rectangle box) {
+        for (int i = 0; i < boxes.size(); i++) {
+            if (boxes.get(i).rect.equals(box)) return i;
+        }
+        return -1;
+    }
+
+    private Box register(Rectangle box) {
+        Box b = new Box(new Rectangle(box));
+        boxes.add(b);
+        return b;
+    }
+
+    // One request for all of them; each text completes its bubble as soon as the batch streams it
+    private void startBatch(List<Box> missing) {
+        List<Rectangle> rects = new ArrayList<>(missing.size());
+        List<CompletableFuture<OcrResult>> targets = new ArrayList<>(missing.size());
+        for (Box b : missing) {
+            rects.add(b.rect);
+            targets.add(b.result);
+        }
+        OcrJob job = batch.apply(rects, r -> targets.get(r.index()).complete(new OcrResult(r.text(), r.nanos())));
+        for (Box b : missing) b.attempt = job;
+        job.result().whenComplete((texts, ex) -> {
+            if (ex == null || job.isCancelled() && !job.isTimedOut()) return;
+            synchronized (this) {
+                for (int i = 0; i < missing.size(); i++) {
+                    if (missing.get(i).attempt == job) missing.get(i).attempt = null;
+                    targets.get(i).completeExceptionally(ex);
+                }
+            }
+        });
+    }
+
+    // Cancels a bubble unless its text is already known; it can be selected again later. A batch stops as a
+    // whole, so the other bubbles in it start over too when they are next selected
+    private void drop(Box b) {
+        if (b.result.isDone()) return;
+        speculative.remove(b);
+        OcrJob attempt = b.attempt;
+        if (attempt == null) {
+            reset(b);
+            return;
+        }
+        attempt.cancel();
+        for (Box other : boxes) {
+            if (other.attempt == attempt) reset(other);
+        }
+    }
+
+    private static void reset(Box b) {
+        b.attempt = null;
+        if (b.result.isDone()) return;
+        b.result.completeExceptionally(new CancellationException("Bubble deselected"));
+        b.result = new CompletableFuture<>();
+    }
+
+    private void feed() {
+        while (true) {
+            Box b;
+            OcrJob attempt;
+            CompletableFuture<OcrResult> target;
+            synchronized (this) {
+                try {
+                    while (choosing && !speculative.isEmpty() && speculativeRunning >= maxWorkers) {
+                        wait();
+                    }
+                } catch (InterruptedException e) {
+                    feeder = null;
+                    return;
+                }
+                if (!choosing || speculative.isEmpty()) {
+                    feeder = null;
+                    return;
+                }
+                b = speculative.poll();
+                speculativeRunning++;
+                attempt = new OcrJob(0);
+                b.attempt = attempt;
+                target = b.result;
+            }
+            Box box = b;
+            try {
+                pool.submit(ocr.apply(crop(box.rect)), attempt).whenComplete((result, ex) -> {
+                    synchronized (this) {
+                        speculativeRunning--;
+                        if (box.attempt == attempt && ex != null) box.attempt = null;
+                        notifyAll();
+                    }
+                    if (ex == null) {
+                        target.complete(result);
+                    } else if (!attempt.isCancelled()) {
+                        target.completeExceptionally(ex);
+                    }
+                });
+            } catch (InterruptedException e) {
+                synchronized (this) {
+                    speculativeRunning--;
+                    if (box.attempt == attempt) box.attempt = null;
+                    feeder = null;
+                }
+                return;
+            }
+        }
+    }
+
+    private BufferedImage crop(Rectangle r) {
+        return capture.getSubimage(r.x, r.y, r.width, r.height);
+    }
+
+    private static final class Box {
+        final Rectangle rect;
+        // Replaced when the bubble is cancelled or failed, so a later selection waits for a fresh attempt
+        CompletableFuture<OcrResult> result = new CompletableFuture<>();
+        // What is reading this bubble: its own pool job, or the batch it is part of. Null until started,
+        // and again once cancelled or failed
+        OcrJob attempt;
+
+        Box(Rectangle rect) {
+            this.rect = rect;
+        }
+    }
+}
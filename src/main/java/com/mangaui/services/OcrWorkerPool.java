@@ -0,0 +1,221 @@
+package com.mangaui.services;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * A fixed set of OCR workers, each a thread with its own {@link Slot}: the slot keeps that worker's
+ * manga-ocr process alive between jobs, and tesseract jobs simply run one process per worker at a time.
+ * Jobs go through a bounded queue, so a caller submitting a large batch blocks instead of piling up work.
+ *
+ * Every worker tracks how long it has been busy, for {@link #utilization(int)}.
+ */
+public final class OcrWorkerPool implements AutoCloseable {
+    public interface Job<T> {
+        T run(Slot slot) throws Exception;
+    }
+
+    /** Per-worker state handed to every job that worker runs. */
+    public static final class Slot {
+        private final int index;
+        private final int threads;
+        private MangaOcrWorker mangaOcr;
+        private volatile OcrJob job = OcrJob.NONE;
+        private volatile long busyNanos;
+        private volatile long completed;
+
+        Slot(int index, int threads) {
+            this.index = index;
+            this.threads = threads;
+        }
+
+        public int index() {
+            return index;
+        }
+
+        /** The job the running task belongs to, {@link OcrJob#NONE} if none. */
+        public OcrJob job() {
+            return job;
+        }
+
+        /** CPU threads this worker's engine should use, so the workers together do not oversubscribe. */
+        public int threads() {
+            return threads;
+        }
+
+        /** This worker's manga-ocr process, replaced when the Python command changes. */
+        public synchronized MangaOcrWorker mangaOcr(String pythonCommand) {
+            if (mangaOcr == null || !mangaOcr.pythonCommand().equals(pythonCommand)) {
+                if (mangaOcr != null) mangaOcr.close();
+                mangaOcr = new MangaOcrWorker(pythonCommand, threads);
+            }
+            return mangaOcr;
+        }
+
+        synchronized void close() {
+            if (mangaOcr != null) mangaOcr.close();
+            mangaOcr = null;
+        }
+    }
+
+    private static final Task<Void> STOP = new Task<>(null, null, OcrJob.NONE);
+
+    private final Slot[] slots;
+    private final Thread[] threads;
+    private final BlockingQueue<Task<?>> queue;
+    private final long createdNanos = System.nanoTime();
+
+    /** {@code size} workers and room for {@code queueCapacity} waiting jobs. */
+    public OcrWorkerPool(int size, int queueCapacity) {
+        if (size < 1) throw new IllegalArgumentException("Pool size must be at least 1: " + size);
+        slots = new Slot[size];
+        threads = new Thread[size];
+        queue = new ArrayBlockingQueue<>(Math.max(1, queueCapacity));
+        int threadsPerWorker = Math.max(1, Runtime.getRuntime().availableProcessors() / size);
+        for (int i = 0; i < size; i++) {
+            Slot slot = new Slot(i, threadsPerWorker);
+            slots[i] = slot;
+            threads[i] = new Thread(() -> work(slot), "ocr-worker-" + i);
+            threads[i].setDaemon(true);
+            threads[i].start();
+        }
+    }
+
+    public int size() {
+        return slots.length;
+    }
+
+    public Slot slot(int worker) {
+        return slots[worker];
+    }
+
+    /** Runs {@code job} on the next free worker; blocks while the queue is full. */
+    public <T> CompletableFuture<T> submit(Job<T> job) throws InterruptedException {
+        return submit(job, OcrJob.NONE);
+    }
+
+    /** Like {@link #submit(Job)}, but skipped without running if {@code owner} is stopped before a worker takes it. */
+    public <T> CompletableFuture<T> submit(Job<T> job, OcrJob owner) throws InterruptedException {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        queue.put(new Task<>(job, result, owner));
+        return result;
+    }
+
+    /**
+     * Runs all jobs across the pool and returns their results in job order. If any job fails, the first
+     * failure in job order is thrown once all jobs have finished.
+     */
+    public <T> List<T> invokeAll(List<? extends Job<T>> jobs) throws Exception {
+        return invokeAll(jobs, OcrJob.NONE);
+    }
+
+    /** Like {@link #invokeAll(List)}, for jobs belonging to {@code owner}; stops submitting once it is stopped. */
+    public <T> List<T> invokeAll(List<? extends Job<T>> jobs, OcrJob owner) throws Exception {
+        List<CompletableFuture<T>> futures = new ArrayList<>(jobs.size());
+        for (Job<T> job : jobs) {
+            owner.checkActive();
+            futures.add(submit(job, owner));
+        }
+        List<T> results = new ArrayList<>(jobs.size());
+        Exception failure = null;
+        for (CompletableFuture<T> f : futures) {
+            try {
+                results.add(f.get());
+            } catch (ExecutionException e) {
+                if (failure == null) {
+                    failure = e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+                }
+                results.add(null);
+            }
+        }
+        if (failure != null) throw failure;
+        return results;
+    }
+
+    /** Share of the time since the pool was created that {@code worker} spent running jobs, 0..1. */
+    public double utilization(int worker) {
+        long elapsed = System.nanoTime() - createdNanos;
+        return elapsed <= 0 ? 0.0 : Math.min(1.0, (double) slots[worker].busyNanos / elapsed);
+    }
+
+    /** Jobs {@code worker} has finished, successfully or not. */
+    public long completed(int worker) {
+        return slots[worker].completed;
+    }
+
+    /** Jobs waiting for a free worker. */
+    public int queued() {
+        return queue.size();
+    }
+
+    /** Stops the workers once queued jobs are done and closes their manga-ocr processes. */
+    @Override
+    public void close() {
+        for (int i = 0; i < threads.length; i++) {
+            try {
+                queue.put(STOP);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        for (Thread t : threads) {
+            try {
+                t.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        for (Slot slot : slots) {
+            slot.close();
+        }
+    }
+
+    private void work(Slot slot) {
+        while (true) {
+            Task<?> task;
+            try {
+                task = queue.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (task == STOP) return;
+            long start = System.nanoTime();
+            try {
+                task.run(slot);
+            } finally {
+                slot.busyNanos += System.nanoTime() - start;
+                slot.completed++;
+            }
+        }
+    }
+
+    private static final class Task<T> {
+        final Job<T> job;
+        final CompletableFuture<T> result;
+        final OcrJob owner;
+
+        Task(Job<T> job, CompletableFuture<T> result, OcrJob owner) {
+            this.job = job;
+            this.result = result;
+            this.owner = owner;
+        }
+
+        void run(Slot slot) {
+            slot.job = owner;
+            try {
+                owner.checkActive();
+                result.complete(job.run(slot));
+            } catch (Throwable t) {
+                result.completeExceptionally(t);
+            } finally {
+                slot.job = OcrJob.NONE;
+            }
+        }
+    }
+}
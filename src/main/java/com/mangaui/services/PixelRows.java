@@ -0,0 +1,82 @@
+package com.mangaui.services;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.Raster;
+import java.awt.image.SinglePixelPackedSampleModel;
+
+/**
+ * Reads spans of pixels as packed 0xRRGGBB ints. Packed int (INT_RGB/INT_ARGB) and interleaved byte
+ * (3BYTE_BGR/4BYTE_ABGR) images are read straight from their data buffers, honouring sub-image offsets;
+ * every other type goes through {@link BufferedImage#getRGB(int, int, int, int, int[], int, int)}.
+ * The top byte of the returned values is unspecified.
+ */
+final class PixelRows {
+    private final BufferedImage image;
+    private final int[] intData;
+    private final byte[] byteData;
+    private final int base;
+    private final int scan;
+    private final int pixelStride;
+    private final int rOff;
+    private final int gOff;
+    private final int bOff;
+
+    PixelRows(BufferedImage image) {
+        this.image = image;
+        Raster raster = image.getRaster();
+        DataBuffer db = raster.getDataBuffer();
+        int tx = raster.getSampleModelTranslateX();
+        int ty = raster.getSampleModelTranslateY();
+        int type = image.getType();
+        int[] ints = null;
+        byte[] bytes = null;
+        int b = 0, sc = 0, ps = 1, r = 0, g = 0, bl = 0;
+        if ((type == BufferedImage.TYPE_INT_RGB || type == BufferedImage.TYPE_INT_ARGB)
+                && db instanceof DataBufferInt && raster.getSampleModel() instanceof SinglePixelPackedSampleModel) {
+            ints = ((DataBufferInt) db).getData();
+            sc = ((SinglePixelPackedSampleModel) raster.getSampleModel()).getScanlineStride();
+            b = db.getOffset() - ty * sc - tx;
+        } else if ((type == BufferedImage.TYPE_3BYTE_BGR || type == BufferedImage.TYPE_4BYTE_ABGR)
+                && db instanceof DataBufferByte && raster.getSampleModel() instanceof ComponentSampleModel) {
+            ComponentSampleModel sm = (ComponentSampleModel) raster.getSampleModel();
+            bytes = ((DataBufferByte) db).getData();
+            sc = sm.getScanlineStride();
+            ps = sm.getPixelStride();
+            int[] bands = sm.getBandOffsets();
+            r = bands[0];
+            g = bands[1];
+            bl = bands[2];
+            b = db.getOffset() - ty * sc - tx * ps;
+        }
+        this.intData = ints;
+        this.byteData = bytes;
+        this.base = b;
+        this.scan = sc;
+        this.pixelStride = ps;
+        this.rOff = r;
+        this.gOff = g;
+        this.bOff = bl;
+    }
+
+    int width() { return image.getWidth(); }
+
+    int height() { return image.getHeight(); }
+
+    /** Copies pixels [x, x + len) of row y into {@code dst}. */
+    void read(int y, int x, int len, int[] dst) {
+        if (intData != null) {
+            System.arraycopy(intData, base + y * scan + x, dst, 0, len);
+        } else if (byteData != null) {
+            int p = base + y * scan + x * pixelStride;
+            for (int i = 0; i < len; i++, p += pixelStride) {
+                dst[i] = (byteData[p + rOff] & 0xFF) << 16 | (byteData[p + gOff] & 0xFF) << 8 | (byteData[p + bOff] & 0xFF);
+            }
+        } else {
+            image.getRGB(x, y, len, 1, dst, 0, len);
+        }
+    }
+}
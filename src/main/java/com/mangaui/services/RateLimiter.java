@@ -0,0 +1,67 @@
+package com.mangaui.services;
+
+/**
+ * Token bucket: {@code burst} requests may go at once, after that {@code perSecond} on average. Callers
+ * reserve a slot and are told how long to wait for it instead of blocking, so async code can schedule the
+ * request. The bucket can also be paused, e.g. while a server's Retry-After lasts.
+ */
+public final class RateLimiter {
+    private final double perSecond;
+    private final double burst;
+    private double tokens;
+    private long refilledNanos = System.nanoTime();
+    private long pausedUntilNanos;
+    private long reservations;
+    private long delayed;
+    private long delayedMs;
+    private long pauses;
+
+    public RateLimiter(double perSecond, int burst) {
+        if (perSecond <= 0 || burst < 1) throw new IllegalArgumentException("Rate and burst must be positive");
+        this.perSecond = perSecond;
+        this.burst = burst;
+        this.tokens = burst;
+    }
+
+    /** Takes the next free slot; returns how many milliseconds from now it starts, 0 for right away. */
+    public synchronized long reserve() {
+        long now = System.nanoTime();
+        refill(now);
+        tokens -= 1;
+        long waitNanos = tokens >= 0 ? 0 : (long) (-tokens / perSecond * 1e9);
+        waitNanos = Math.max(waitNanos, pausedUntilNanos - now);
+        reservations++;
+        if (waitNanos <= 0) return 0;
+        long waitMs = (waitNanos + 999_999) / 1_000_000;
+        delayed++;
+        delayedMs += waitMs;
+        return waitMs;
+    }
+
+    /** No slot starts in the next {@code ms} milliseconds; a longer pause already in place is kept. */
+    public synchronized void pause(long ms) {
+        long until = System.nanoTime() + ms * 1_000_000;
+        if (until - pausedUntilNanos > 0) pausedUntilNanos = until;
+        pauses++;
+    }
+
+    /** Slots free right now; negative while callers are queued for later ones. */
+    public synchronized double available() {
+        refill(System.nanoTime());
+        return tokens;
+    }
+
+    public synchronized long reservations() { return reservations; }
+
+    /** Reservations that had to wait, and their total wait. */
+    public synchronized long delayed() { return delayed; }
+
+    public synchronized long delayedMs() { return delayedMs; }
+
+    public synchronized long pauses() { return pauses; }
+
+    private void refill(long now) {
+        tokens = Math.min(burst, tokens + (now - refilledNanos) / 1e9 * perSecond);
+        refilledNanos = now;
+    }
+}
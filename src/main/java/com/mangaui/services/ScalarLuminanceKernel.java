@@ -0,0 +1,30 @@
+package com.mangaui.services;
+
+final class ScalarLuminanceKernel implements LuminanceKernel {
+    @Override
+    public void classify(int[] rgb, int len, long[] dark, long[] light) {
+        for (int w = 0, base = 0; base < len; w++, base += 64) {
+            int end = Math.min(len, base + 64);
+            long d = 0;
+            long l = 0;
+            for (int i = base; i < end; i++) {
+                int s = LuminanceKernel.fixedPoint(rgb[i]);
+                // Branch-free sign tricks: bit set when s < DARK_LIMIT, resp. s >= LIGHT_LIMIT
+                d |= (long) ((s - DARK_LIMIT) >>> 31) << i;
+                l |= (long) (~(s - LIGHT_LIMIT) >>> 31) << i;
+                if (LuminanceKernel.isBoundary(s)) {
+                    int lum = LuminanceKernel.exactLuminance(rgb[i]);
+                    d = lum <= DARK_MAX ? d | (1L << i) : d & ~(1L << i);
+                    l = lum >= LIGHT_MIN ? l | (1L << i) : l & ~(1L << i);
+                }
+            }
+            dark[w] = d;
+            light[w] = l;
+        }
+    }
+
+    @Override
+    public String name() {
+        return "scalar";
+    }
+}
@@ -0,0 +1,273 @@
+package com.mangaui.services;
+
+import javax.imageio.ImageIO;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * OCR with the tesseract command line tool, one process per request. Probing finds the binary (TESSERACT_CMD,
+ * else the first of the usual names that answers {@code --version}) and records its version and installed
+ * languages, so no request has to look for it again.
+ *
+ * Images go to tesseract on stdin; if that fails where a temp file works, stdin is not used again.
+ */
+public final class TesseractEngine implements OcrEngine {
+    private static final String[] CANDIDATES = {"tesseract", "tesseract-ocr"};
+    private static final long PROBE_TIMEOUT_MS = TimeUnit.SECONDS.toMillis(5);
+    // Drains a second pipe while the caller blocks on the first. A stuck tesseract holds one of these
+    // threads, never a ForkJoinPool worker that bubble detection needs
+    private static final ExecutorService STREAM_READERS = Executors.newCachedThreadPool(r -> {
+        Thread t = new Thread(r, "tesseract-io");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private String configured;
+    private String command;
+    private String version = "";
+    private Set<String> languages = Set.of();
+    private volatile boolean stdinUnsupported;
+
+    @Override
+    public String name() {
+        return "tesseract";
+    }
+
+    @Override
+    public boolean supports(String language) {
+        return language != null && language.endsWith("(Tesseract)");
+    }
+
+    @Override
+    public synchronized void probe() {
+        configured = System.getProperty("TESSERACT_CMD", System.getenv().getOrDefault("TESSERACT_CMD", ""));
+        command = null;
+        version = "";
+        languages = Set.of();
+        List<String> candidates = configured.isBlank() ? Arrays.asList(CANDIDATES) : List.of(configured);
+        for (String c : candidates) {
+            List<String> out = probeOutput(c, "--version");
+            if (out != null) {
+                command = c;
+                version = out.isEmpty() ? "" : out.get(0);
+                break;
+            }
+        }
+        if (command == null) {
+            command = candidates.get(0); // Fallback; requests report the failure
+            return;
+        }
+        // First line is a header ("List of available languages ...")
+        List<String> langs = probeOutput(command, "--list-langs");
+        if (langs != null && langs.size() > 1) {
+            languages = new LinkedHashSet<>(langs.subList(1, langs.size()));
+        }
+    }
+
+    /** The tesseract binary, probed again only after the TESSERACT_CMD setting changed. */
+    public synchronized String command() {
+        String current = System.getProperty("TESSERACT_CMD", System.getenv().getOrDefault("TESSERACT_CMD", ""));
+        if (command == null || !current.equals(configured)) probe();
+        return command;
+    }
+
+    /** First line of {@code tesseract --version}, empty if the binary was not found. */
+    public synchronized String version() {
+        command();
+        return version;
+    }
+
+    /** Traineddata installed, e.g. "eng", "jpn"; empty if unknown. */
+    public synchronized Set<String> languages() {
+        command();
+        return languages;
+    }
+
+    public boolean supportsStdin() {
+        return !stdinUnsupported;
+    }
+
+    @Override
+    public String recognize(OcrWorkerPool.Slot slot, GrayImage image, String language) throws Exception {
+        if (!stdinUnsupported) {
+            try {
+                // Binarized crops go as PBM, an eighth of the bytes
+                return run(slot, "stdin", language, image.isBilevel() ? image.toPbm() : image.toPgm());
+            } catch (IOException | RuntimeException e) {
+                // A process killed by a stopped job says nothing about stdin
+                slot.job().checkActive();
+                // Only give up on stdin for good if the file path works where stdin did not
+                String text = recognizeViaTempFile(slot, image, language);
+                stdinUnsupported = true;
+                return text;
+            }
+        }
+        return recognizeViaTempFile(slot, image, language);
+    }
+
+    /**
+     * All pages in one tesseract run: a multi-page TIFF on stdin, with the text of consecutive pages separated
+     * by form feeds on stdout. Returns null when the output cannot be split into one text per page, so the
+     * caller can fall back to one run per crop.
+     */
+    @Override
+    public List<String> recognizeBatch(OcrWorkerPool.Slot slot, List<GrayImage> pages, String language) throws Exception {
+        if (stdinUnsupported) return null;
+        ProcessBuilder pb = new ProcessBuilder(commandLine("stdin", language));
+        pb.environment().put("OMP_THREAD_LIMIT", Integer.toString(slot.threads()));
+        Process process = pb.start();
+        OcrJob job = slot.job();
+        job.register(process);
+        String out;
+        try {
+            // Kept apart from stdout here: warnings interleaved with the page texts would break the split
+            CompletableFuture<String> stderr = CompletableFuture.supplyAsync(() -> {
+                try {
+                    return new String(process.getErrorStream().readAllBytes(), StandardCharsets.UTF_8);
+                } catch (IOException e) {
+                    return "";
+                }
+            }, STREAM_READERS);
+            try (OutputStream stdin = process.getOutputStream()) {
+                stdin.write(GrayImage.toMultipageTiff(pages));
+            } catch (IOException e) {
+                process.destroyForcibly();
+                job.checkActive();
+                return null;
+            }
+            out = new String(process.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
+            int code = process.waitFor();
+            if (code != 0) {
+                job.checkActive();
+                throw new RuntimeException("tesseract exited with code " + code + ":\n" + stderr.join());
+            }
+        } finally {
+            job.unregister(process);
+        }
+        // Tesseract 4.1+ puts the separator between pages, older versions after every page
+        List<String> texts = new ArrayList<>(Arrays.asList(out.split("\f", -1)));
+        if (texts.size() == pages.size() + 1 && texts.get(pages.size()).isBlank()) {
+            texts.remove(pages.size());
+        }
+        if (texts.size() != pages.size()) return null;
+        for (int i = 0; i < texts.size(); i++) texts.set(i, texts.get(i).trim());
+        return texts;
+    }
+
+    @Override
+    public String recognizeFile(OcrWorkerPool.Slot slot, String imagePath, String language) throws Exception {
+        return run(slot, imagePath, language, null);
+    }
+
+    private String recognizeViaTempFile(OcrWorkerPool.Slot slot, GrayImage image, String language) throws Exception {
+        File temp = File.createTempFile("tesseract-", ".png");
+        try {
+            ImageIO.write(image.toBufferedImage(), "png", temp);
+            return recognizeFile(slot, temp.getAbsolutePath(), language);
+        } finally {
+            try { Files.deleteIfExists(temp.toPath()); } catch (IOException ignored) {}
+        }
+    }
+
+    // imagePath "stdin" makes tesseract read the image from stdinImage
+    private String run(OcrWorkerPool.Slot slot, String imagePath, String language, byte[] stdinImage) throws Exception {
+        ProcessBuilder pb = new ProcessBuilder(commandLine(imagePath, language));
+        // Several workers run tesseract side by side; keep each one to its share of the cores
+        pb.environment().put("OMP_THREAD_LIMIT", Integer.toString(slot.threads()));
+        pb.redirectErrorStream(true);
+        Process process = pb.start();
+        OcrJob job = slot.job();
+        job.register(process);
+        try {
+            // Tesseract reads all of stdin before it writes anything, so this cannot deadlock on the output pipe
+            try (OutputStream stdin = process.getOutputStream()) {
+                if (stdinImage != null) stdin.write(stdinImage);
+            }
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+                StringBuilder sb = new StringBuilder();
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    sb.append(line).append('\n');
+                }
+                int code = process.waitFor();
+                if (code != 0) {
+                    job.checkActive();
+                    throw new RuntimeException("tesseract exited with code " + code + ":\n" + sb);
+                }
+                return sb.toString().trim();
+            }
+        } catch (IOException e) {
+            job.checkActive();
+            throw e;
+        } finally {
+            job.unregister(process);
+        }
+    }
+
+    private List<String> commandLine(String input, String language) {
+        List<String> command = new ArrayList<>();
+        command.add(command());
+        command.add(input);
+        command.add("stdout");
+        command.add("-l");
+        command.add(languageCode(language));
+        command.add("--psm");
+        command.add("6"); // Assume uniform block of text
+        return command;
+    }
+
+    static String languageCode(String language) {
+        switch (language) {
+            case "Portuguese (Tesseract)": return "por";
+            case "English (Tesseract)": return "eng";
+            case "Spanish (Tesseract)": return "spa";
+            case "French (Tesseract)": return "fra";
+            case "German (Tesseract)": return "deu";
+            default: return "eng";
+        }
+    }
+
+    // Output lines of a short probe command, or null if it cannot be run or fails
+    private static List<String> probeOutput(String... command) {
+        try {
+            Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+            process.getOutputStream().close();
+            CompletableFuture<String> out = CompletableFuture.supplyAsync(() -> {
+                try {
+                    return new String(process.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
+                } catch (IOException e) {
+                    return "";
+                }
+            }, STREAM_READERS);
+            if (!process.waitFor(PROBE_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                process.destroyForcibly();
+                return null;
+            }
+            if (process.exitValue() != 0) return null;
+            List<String> lines = new ArrayList<>();
+            for (String line : out.join().split("\r?\n")) {
+                if (!line.isBlank()) lines.add(line.trim());
+            }
+            return lines;
+        } catch (IOException e) {
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+}
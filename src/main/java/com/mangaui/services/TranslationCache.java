@@ -0,0 +1,231 @@
+package com.mangaui.services;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.text.Normalizer;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Translations keyed by normalized source text, languages and formality, in two tiers: a size-bounded LRU
+ * map in memory, and an append-only log under {@code ~/.mangaui} that keeps every translation ever made.
+ * Opening the log only rebuilds an index from a 64-bit hash of each key to the offset of its newest line;
+ * texts are read from the file when the memory tier misses, so startup cost and memory do not grow with
+ * the log. The log is rewritten without superseded lines once they make up half of it.
+ */
+public final class TranslationCache {
+    private static final int DEFAULT_MAX_ENTRIES = 2000;
+    // Don't bother compacting small logs
+    private static final int COMPACT_MIN_LINES = 1000;
+    private static final long FNV_OFFSET = 0xCBF29CE484222325L;
+    private static final long FNV_PRIME = 0x100000001B3L;
+
+    private final int maxEntries;
+    private final Path logFile;
+    private final LinkedHashMap<String, String> entries;
+    private final Map<Long, Long> index = new HashMap<>();
+    private RandomAccessFile log;
+    private boolean loaded;
+    private int logLines;
+    // Written under the lock, read without it: the UI shows them while a lookup may be reading the disk
+    private volatile long hits;
+    private volatile long storeHits;
+    private volatile long misses;
+
+    public TranslationCache() {
+        this(DEFAULT_MAX_ENTRIES, new File(System.getProperty("user.home"), ".mangaui").toPath().resolve("translation-cache.tsv"));
+    }
+
+    /** At most {@code maxEntries} in memory, the rest in {@code logFile}; null keeps only the memory tier. */
+    public TranslationCache(int maxEntries, Path logFile) {
+        this.maxEntries = maxEntries;
+        this.logFile = logFile;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+                return size() > TranslationCache.this.maxEntries;
+            }
+        };
+    }
+
+    /**
+     * Texts that differ only in Unicode width forms or whitespace share a key: OCR output of the same line
+     * varies in both.
+     */
+    public static String key(String text, String sourceLang, String targetLang, String formality) {
+        String normalized = Normalizer.normalize(text, Normalizer.Form.NFKC).trim().replaceAll("\\s+", " ");
+        return sourceLang + '|' + targetLang + '|' + formality + '|' + normalized;
+    }
+
+    /** Reads the log now instead of on first use. */
+    public synchronized void open() {
+        load();
+    }
+
+    /** The cached translation for {@code key}, or null. */
+    public synchronized String get(String key) {
+        load();
+        String text = entries.get(key);
+        if (text == null) text = readStored(key);
+        if (text == null) {
+            misses++;
+        } else {
+            hits++;
+        }
+        return text;
+    }
+
+    public synchronized void put(String key, String text) {
+        load();
+        if (text.equals(entries.put(key, text))) return;
+        if (log == null) return;
+        try {
+            long offset = log.length();
+            log.seek(offset);
+            log.write((OcrCache.escape(key) + '\t' + OcrCache.escape(text) + '\n').getBytes(StandardCharsets.UTF_8));
+            index.put(hash(key), offset);
+            logLines++;
+            if (logLines > COMPACT_MIN_LINES && logLines > 2 * index.size()) compact();
+        } catch (IOException ignored) {
+            // The memory tier still works; the log is tried again next session
+            closeLog();
+        }
+    }
+
+    /** Lookups answered from memory or from the log. */
+    public long hits() { return hits; }
+
+    /** The part of {@link #hits()} that had to be read from the log. */
+    public long storeHits() { return storeHits; }
+
+    public long misses() { return misses; }
+
+    /** Translations kept in the log, or in memory without one. */
+    public synchronized int size() {
+        load();
+        return log != null ? index.size() : entries.size();
+    }
+
+    private String readStored(String key) {
+        Long offset = index.get(hash(key));
+        if (offset == null || log == null) return null;
+        try {
+            String line = readLine(log, offset);
+            int tab = line == null ? -1 : line.indexOf('\t');
+            // Another key with the same hash
+            if (tab < 0 || !OcrCache.unescape(line.substring(0, tab)).equals(key)) return null;
+            String text = OcrCache.unescape(line.substring(tab + 1));
+            entries.put(key, text);
+            storeHits++;
+            return text;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    // Later lines win. A torn last line from a crash is cut off so appends start clean
+    private void load() {
+        if (loaded) return;
+        loaded = true;
+        if (logFile == null) return;
+        try {
+            Files.createDirectories(logFile.getParent());
+            log = new RandomAccessFile(logFile.toFile(), "rw");
+            long end = scan(log);
+            if (end < log.length()) log.setLength(end);
+        } catch (IOException ignored) {
+            closeLog();
+        }
+    }
+
+    // Indexes every complete line and returns the offset just past the last one. Hashes the escaped key bytes
+    // as they stream by, so nothing is decoded
+    private long scan(RandomAccessFile file) throws IOException {
+        index.clear();
+        logLines = 0;
+        file.seek(0);
+        byte[] buf = new byte[1 << 16];
+        long pos = 0;
+        long lineStart = 0;
+        long hash = FNV_OFFSET;
+        boolean inKey = true;
+        int n;
+        while ((n = file.read(buf)) > 0) {
+            for (int i = 0; i < n; i++, pos++) {
+                byte b = buf[i];
+                if (b == '\n') {
+                    if (!inKey) {
+                        index.put(hash, lineStart);
+                        logLines++;
+                    }
+                    hash = FNV_OFFSET;
+                    inKey = true;
+                    lineStart = pos + 1;
+                } else if (inKey) {
+                    if (b == '\t') {
+                        inKey = false;
+                    } else {
+                        hash = (hash ^ (b & 0xFF)) * FNV_PRIME;
+                    }
+                }
+            }
+        }
+        return lineStart;
+    }
+
+    private static String readLine(RandomAccessFile file, long offset) throws IOException {
+        file.seek(offset);
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        byte[] buf = new byte[512];
+        int n;
+        while ((n = file.read(buf)) > 0) {
+            for (int i = 0; i < n; i++) {
+                if (buf[i] == '\n') {
+                    line.write(buf, 0, i);
+                    return line.toString(StandardCharsets.UTF_8);
+                }
+            }
+            line.write(buf, 0, n);
+        }
+        return null;
+    }
+
+    private void compact() throws IOException {
+        Path tmp = logFile.resolveSibling(logFile.getFileName() + ".tmp");
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(tmp))) {
+            for (long offset : index.values()) {
+                String line = readLine(log, offset);
+                if (line != null) out.write((line + '\n').getBytes(StandardCharsets.UTF_8));
+            }
+        }
+        closeLog();
+        Files.move(tmp, logFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        log = new RandomAccessFile(logFile.toFile(), "rw");
+        scan(log);
+    }
+
+    private void closeLog() {
+        if (log != null) {
+            try { log.close(); } catch (IOException ignored) {}
+        }
+        log = null;
+    }
+
+    // FNV-1a over the key as it is written to the log
+    private static long hash(String key) {
+        long h = FNV_OFFSET;
+        for (byte b : OcrCache.escape(key).getBytes(StandardCharsets.UTF_8)) {
+            h = (h ^ (b & 0xFF)) * FNV_PRIME;
+        }
+        return h;
+    }
+}
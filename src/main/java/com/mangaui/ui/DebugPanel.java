@@ -28,6 +28,7 @@ import java.util.ArrayList;
 public class DebugPanel extends JPanel {
     private final JLabel infoLabel;
     private final JLabel imageLabel;
+    private final JLabel statsLabel;
     private final JList<BubbleItem> bubbleList;
     private final DefaultListModel<BubbleItem> bubbleModel;
     private final JButton processSelectedButton;
@@ -62,6 +63,11 @@ public class DebugPanel extends JPanel {
         imageLabel = new JLabel();
         imageLabel.setBackground(ColorTheme.BACKGROUND_CARD);
         imageLabel.setOpaque(true);
+
+        statsLabel = new JLabel(" ");
+        statsLabel.setForeground(ColorTheme.TEXT_SECONDARY);
+        statsLabel.setFont(new Font("Segoe UI", Font.PLAIN, 11));
+        statsLabel.setBorder(BorderFactory.createEmptyBorder(4, 8, 4, 8));
         
         // Bubble selection list
         bubbleModel = new DefaultListModel<>();
@@ -116,6 +122,7 @@ public class DebugPanel extends JPanel {
         
         add(controlPanel, BorderLayout.NORTH);
         add(splitPane, BorderLayout.CENTER);
+        add(statsLabel, BorderLayout.SOUTH);
         
         // Add mouse listeners for manual selection
         setupManualSelectionListeners();
@@ -335,6 +342,10 @@ public class DebugPanel extends JPanel {
         
         detectedBoxes.add(box);
         
+        if (ocrPanel != null) {
+            ocrPanel.addSpeculativeBubble(box);
+        }
+        
         // Add to bubble list
         bubbleModel.addElement(new BubbleItem(detectedBoxes.size() - 1, box, true));
         
@@ -437,6 +448,11 @@ public class DebugPanel extends JPanel {
     public void setOcrPanel(OcrPanel ocrPanel) {
         this.ocrPanel = ocrPanel;
     }
+
+    /** One line of OCR statistics under the preview, e.g. how busy each OCR worker was. */
+    public void showOcrStats(String stats) {
+        statsLabel.setText(stats);
+    }
     
     private BufferedImage createImageWithLabels(BufferedImage originalImage) {
         if (originalImage == null || detectedBoxes == null) {
@@ -505,6 +521,11 @@ public class DebugPanel extends JPanel {
             }
         }
         
+        // Read every bubble in the background while the user decides; processing then mostly finds them done
+        if (ocrPanel != null && detectedBoxes != null) {
+            ocrPanel.speculate(image, detectedBoxes);
+        }
+        
         processSelectedButton.setEnabled(detectedCount > 0);
         manualSelectButton.setEnabled(true);
         revalidate();
@@ -1,6 +1,11 @@
 package com.mangaui.ui;
 
+import com.mangaui.services.BubbleResult;
 import com.mangaui.services.MangaOcrService;
+import com.mangaui.services.OcrJob;
+import com.mangaui.services.OcrPreprocessor;
+import com.mangaui.services.OcrSpeculation;
+import com.mangaui.services.OcrWorkerPool;
 
 import javax.swing.BorderFactory;
 import javax.swing.JButton;
@@ -21,12 +26,17 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.function.Consumer;
 
 public class OcrPanel extends JPanel {
     private final MangaOcrService ocrService;
     private final JTextArea ocrOutput;
     private final ExecutorService executor = Executors.newSingleThreadExecutor();
     private final DebugPanel debugPanel;
+    // The OCR job whose results are on screen; a new selection cancels it. Only touched on the EDT
+    private OcrJob currentJob;
+    // OCR of every bubble in the last capture, started before the user picks any. Only touched on the EDT
+    private OcrSpeculation speculation;
 
     public OcrPanel(MangaOcrService ocrService, DebugPanel debugPanel) {
         super(new BorderLayout());
@@ -128,6 +138,8 @@ public class OcrPanel extends JPanel {
         if (rect == null) {
             return;
         }
+        cancelCurrentJob();
+        cancelSpeculation();
         ocrOutput.setText("Detecting bubbles and running OCR on each...");
         final BufferedImage imageForOcr = captured;
         final Rectangle rectForOcr = rect;
@@ -136,45 +148,22 @@ public class OcrPanel extends JPanel {
                 BufferedImage img = imageForOcr != null ? imageForOcr : new Robot().createScreenCapture(rectForOcr);
                 java.util.List<java.awt.Rectangle> boxes = ocrService.detectBubbles(img);
 
+                List<Integer> indices = new ArrayList<>();
+                for (int i = 0; i < boxes.size(); i++) {
+                    indices.add(i);
+                }
                 SwingUtilities.invokeLater(() -> {
                     if (debugPanel != null) {
                         debugPanel.setDetectedBoxes(boxes);
                         debugPanel.showPreview(img, boxes.size()); // Pass original image, DebugPanel will add labels
                     }
-                });
-
-                java.util.List<String> texts = ocrService.ocrBubbles(img, boxes);
-                StringBuilder sb = new StringBuilder();
-                for (int i = 0; i < texts.size(); i++) {
-                    sb.append("[Bubble ").append(i + 1).append("]\n");
-                    sb.append(texts.get(i)).append("\n\n");
-                }
-                if (texts.isEmpty()) {
-                    sb.append("No bubbles detected.");
-                }
-                ocrOutput.setText(sb.toString());
-                // Push detected texts into Translation tab checkbox list
-                javax.swing.SwingUtilities.invokeLater(() -> {
-                    java.awt.Container top = getTopLevelAncestor();
-                    if (top instanceof javax.swing.JFrame) {
-                        // Try to find the TranslationPanel in the tabbed pane
-                        java.awt.Component[] comps = ((javax.swing.JFrame) top).getContentPane().getComponents();
-                        for (java.awt.Component c : comps) {
-                            // The app layout: frame -> BorderLayout.CENTER -> JTabbedPane
-                            if (c instanceof javax.swing.JTabbedPane) {
-                                javax.swing.JTabbedPane tabs = (javax.swing.JTabbedPane) c;
-                                for (int i = 0; i < tabs.getTabCount(); i++) {
-                                    java.awt.Component tab = tabs.getComponentAt(i);
-                                    if (tab instanceof TranslationPanel) {
-                                        ((TranslationPanel) tab).setDetectedBubbles(texts);
-                                    }
-                                }
-                            }
-                        }
-                    }
+                    // Every bubble is read in the background while the user picks in the Debug tab; the texts
+                    // show up here as they are done, and "Process Selected Bubbles" then ends the guessing
+                    speculate(img, boxes);
+                    ocrAndShow(img, boxes, indices, "No bubbles detected.", false);
                 });
             } catch (Exception ex) {
-                ocrOutput.setText("OCR failed: " + ex.getMessage());
+                SwingUtilities.invokeLater(() -> ocrOutput.setText("OCR failed: " + ex.getMessage()));
             }
         });
     }
@@ -189,46 +178,124 @@ public class OcrPanel extends JPanel {
     }
     
     public void processSelectedBubbles(BufferedImage image, List<Rectangle> selectedBoxes, List<Integer> originalIndices) {
-        ocrOutput.setText("Processing selected bubbles via OCR...");
-        executor.submit(() -> {
-            try {
-                java.util.List<String> texts = ocrService.ocrBubbles(image, selectedBoxes);
-                StringBuilder sb = new StringBuilder();
-                for (int i = 0; i < texts.size(); i++) {
-                    int originalBubbleNumber = originalIndices.get(i) + 1; // Convert to 1-based
-                    sb.append("[Bubble ").append(originalBubbleNumber).append("]\n");
-                    sb.append(texts.get(i)).append("\n\n");
-                }
-                if (texts.isEmpty()) {
-                    sb.append("No text detected in selected bubbles.");
-                }
-                ocrOutput.setText(sb.toString());
-                
-                // Push detected texts into Translation tab checkbox list
-                javax.swing.SwingUtilities.invokeLater(() -> {
-                    java.awt.Container top = getTopLevelAncestor();
-                    if (top instanceof javax.swing.JFrame) {
-                        // Try to find the TranslationPanel in the tabbed pane
-                        java.awt.Component[] comps = ((javax.swing.JFrame) top).getContentPane().getComponents();
-                        for (java.awt.Component c : comps) {
-                            // The app layout: frame -> BorderLayout.CENTER -> JTabbedPane
-                            if (c instanceof javax.swing.JTabbedPane) {
-                                javax.swing.JTabbedPane tabs = (javax.swing.JTabbedPane) c;
-                                for (int i = 0; i < tabs.getTabCount(); i++) {
-                                    java.awt.Component tab = tabs.getComponentAt(i);
-                                    if (tab instanceof TranslationPanel) {
-                                        ((TranslationPanel) tab).setDetectedBubbles(texts, originalIndices);
-                                    }
-                                }
-                            }
-                        }
-                    }
-                });
-            } catch (Exception ex) {
+        ocrAndShow(image, selectedBoxes, originalIndices, "No text detected in selected bubbles.", true);
+    }
+
+    /**
+     * Starts OCR on every box of {@code image} in the background, so that processing a selection of them later
+     * mostly finds their texts done. Replaces the OCR of any earlier image.
+     */
+    public void speculate(BufferedImage image, List<Rectangle> boxes) {
+        if (speculation != null && speculation.capture() == image) {
+            for (Rectangle box : boxes) speculation.add(box);
+            return;
+        }
+        cancelSpeculation();
+        speculation = ocrService.speculate(image, boxes);
+    }
+
+    /** Adds a box drawn by hand to the background OCR of the current image. */
+    public void addSpeculativeBubble(Rectangle box) {
+        if (speculation != null) speculation.add(box);
+    }
+
+    // Every bubble shows up here and in the Translation tab as soon as its own text is ready; the ones still
+    // being read are listed with a placeholder. Runs on the EDT and returns at once. Without select the texts
+    // come from the image's background OCR as it goes; with it, texts it already has are reused, the bubbles
+    // left out are dropped, and the rest are read in one batched job. The next call replaces this one instead
+    // of queueing behind it
+    private void ocrAndShow(BufferedImage image, List<Rectangle> boxes, List<Integer> originalIndices, String emptyMessage,
+            boolean select) {
+        cancelCurrentJob();
+        String[] texts = new String[boxes.size()];
+        showBubbles(texts, originalIndices, emptyMessage);
+        TranslationPanel translation = findTranslationPanel();
+        if (translation != null) translation.startBubbles(originalIndices);
+        OcrJob[] self = new OcrJob[1];
+        speculate(image, List.of());
+        Consumer<BubbleResult> onBubble = result -> SwingUtilities.invokeLater(() -> {
+            // self[0] is set by then: this method runs on the EDT too
+            if (currentJob != self[0]) return;
+            texts[result.index()] = result.text();
+            showBubbles(texts, originalIndices, emptyMessage);
+            TranslationPanel translationPanel = findTranslationPanel();
+            if (translationPanel != null) translationPanel.setBubbleText(originalIndices.get(result.index()), result.text());
+        });
+        OcrJob job = select ? speculation.select(boxes, onBubble) : speculation.watch(boxes, onBubble);
+        self[0] = job;
+        currentJob = job;
+        job.result().whenComplete((done, ex) -> SwingUtilities.invokeLater(() -> {
+            updateOcrStats();
+            if (currentJob != job || ex == null) return;
+            if (job.isTimedOut()) {
+                ocrOutput.append("OCR timed out: " + ex.getMessage());
+            } else if (!job.isCancelled()) {
                 ocrOutput.setText("OCR failed: " + ex.getMessage());
             }
-        });
+        }));
     }
-}
 
+    // Share of its lifetime each OCR worker spent busy: workers that stay near 100% while bubbles wait in the
+    // queue mean OCR_WORKERS could go up, workers that stay idle mean it could go down. Then what trimming and
+    // downscaling saved: bytes handed to the engines instead of the raw crops, and their cost per crop
+    private void updateOcrStats() {
+        if (debugPanel == null) return;
+        OcrWorkerPool pool = ocrService.ocrPool();
+        StringBuilder sb = new StringBuilder("OCR workers busy:");
+        for (int i = 0; i < pool.size(); i++) {
+            sb.append(i == 0 ? " " : ", ").append(Math.round(pool.utilization(i) * 100)).append("% (")
+                    .append(pool.completed(i)).append(" jobs)");
+        }
+        sb.append(", ").append(pool.queued()).append(" queued");
+        OcrPreprocessor pre = ocrService.preprocessor();
+        long crops = pre.crops();
+        if (crops > 0) {
+            long in = pre.bytesIn();
+            long out = pre.bytesOut();
+            sb.append(String.format(" | Preprocessing: %d crops, %d KB -> %d KB (%d%% saved), %.2f ms per crop",
+                    crops, in / 1024, out / 1024, in == 0 ? 0 : Math.round(100.0 * (in - out) / in),
+                    pre.nanos() / 1e6 / crops));
+        }
+        debugPanel.showOcrStats(sb.toString());
+    }
+
+    private void cancelCurrentJob() {
+        if (currentJob != null) currentJob.cancel();
+        currentJob = null;
+    }
+
+    private void cancelSpeculation() {
+        if (speculation != null) speculation.cancel();
+        speculation = null;
+    }
 
+    private void showBubbles(String[] texts, List<Integer> originalIndices, String emptyMessage) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < texts.length; i++) {
+            int originalBubbleNumber = originalIndices.get(i) + 1; // Convert to 1-based
+            sb.append("[Bubble ").append(originalBubbleNumber).append("]\n");
+            sb.append(texts[i] != null ? texts[i] : "...").append("\n\n");
+        }
+        if (texts.length == 0) {
+            sb.append(emptyMessage);
+        }
+        ocrOutput.setText(sb.toString());
+    }
+
+    private TranslationPanel findTranslationPanel() {
+        java.awt.Container top = getTopLevelAncestor();
+        if (top instanceof javax.swing.JFrame) {
+            // The app layout: frame -> BorderLayout.CENTER -> JTabbedPane
+            for (java.awt.Component c : ((javax.swing.JFrame) top).getContentPane().getComponents()) {
+                if (c instanceof javax.swing.JTabbedPane) {
+                    javax.swing.JTabbedPane tabs = (javax.swing.JTabbedPane) c;
+                    for (int i = 0; i < tabs.getTabCount(); i++) {
+                        java.awt.Component tab = tabs.getComponentAt(i);
+                        if (tab instanceof TranslationPanel) return (TranslationPanel) tab;
+                    }
+                }
+            }
+        }
+        return null;
+    }
+}
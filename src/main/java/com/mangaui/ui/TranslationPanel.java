@@ -1,9 +1,12 @@
 package com.mangaui.ui;
 
 import com.mangaui.services.DeepLClient;
+import com.mangaui.services.RateLimiter;
+import com.mangaui.services.TranslationCache;
 
 import javax.swing.BorderFactory;
 import javax.swing.JButton;
+import javax.swing.JLabel;
 import javax.swing.JCheckBox;
 import javax.swing.JPanel;
 import javax.swing.JScrollPane;
@@ -16,6 +19,7 @@ import javax.swing.ListCellRenderer;
 import javax.swing.TransferHandler;
 import javax.swing.JComponent;
 import javax.swing.ListSelectionModel;
+import javax.swing.SwingUtilities;
 import java.awt.BorderLayout;
 import java.awt.Component;
 import java.awt.datatransfer.DataFlavor;
@@ -25,8 +29,6 @@ import java.util.ArrayList;
 import java.util.List;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.awt.Color;
 import java.awt.Font;
 
@@ -34,9 +36,9 @@ public class TranslationPanel extends JPanel {
     private final DeepLClient deepLClient;
     private final JTextArea inputArea;
     private final JTextArea outputArea;
-    private final ExecutorService executor = Executors.newSingleThreadExecutor();
     private final JPanel bubblesPanel;
     private final JButton translateSelectedButton;
+    private final JLabel cacheLabel;
     private DefaultListModel<BubbleItem> bubbleModel = new DefaultListModel<>();
     private JList<BubbleItem> bubbleList;
 
@@ -111,8 +113,15 @@ public class TranslationPanel extends JPanel {
             }
         });
 
+        cacheLabel = new JLabel();
+        cacheLabel.setForeground(ColorTheme.TEXT_PRIMARY);
+        cacheLabel.setFont(new Font("Segoe UI", Font.PLAIN, 11));
+        cacheLabel.setHorizontalAlignment(JLabel.CENTER);
+        updateCacheLabel();
+
         JPanel north = new JPanel(new BorderLayout());
         north.add(translateSelectedButton, BorderLayout.WEST);
+        north.add(cacheLabel, BorderLayout.CENTER);
         north.add(translateButton, BorderLayout.EAST);
 
         add(north, BorderLayout.NORTH);
@@ -169,39 +178,57 @@ public class TranslationPanel extends JPanel {
             return;
         }
         outputArea.setText("Translating via DeepL...");
-        executor.submit(() -> {
-            try {
-                String translated = deepLClient.translateToEnglish(text);
-                outputArea.setText(translated);
-            } catch (Exception ex) {
-                outputArea.setText("Translation failed: " + ex.getMessage());
-            }
-        });
+        deepLClient.translateAsync(text).whenComplete((translated, ex) -> SwingUtilities.invokeLater(() -> {
+            outputArea.setText(ex == null ? translated : "Translation failed: " + failureMessage(ex));
+            updateCacheLabel();
+        }));
     }
 
     private void translateSelected() {
         List<Integer> selectedIndexes = new java.util.ArrayList<>();
         for (int i = 0; i < bubbleModel.size(); i++) {
-            if (bubbleModel.get(i).selected) selectedIndexes.add(i);
+            // Bubbles still being read have no text yet
+            if (bubbleModel.get(i).selected && bubbleModel.get(i).text != null) selectedIndexes.add(i);
         }
         if (selectedIndexes.isEmpty()) {
             return;
         }
         outputArea.setText("Translating selected via DeepL...");
-        executor.submit(() -> {
-            try {
+        // One request for the whole page instead of one per bubble
+        List<String> sources = new ArrayList<>();
+        for (int idx : selectedIndexes) {
+            sources.add(bubbleModel.get(idx).text);
+        }
+        deepLClient.translateBatchAsync(sources).whenComplete((translated, ex) -> SwingUtilities.invokeLater(() -> {
+            if (ex != null) {
+                outputArea.setText("Translation failed: " + failureMessage(ex));
+            } else {
                 StringBuilder out = new StringBuilder();
-                for (int idx : selectedIndexes) {
-                    String source = bubbleModel.get(idx).text;
-                    String translated = deepLClient.translateToEnglish(source);
+                for (int i = 0; i < selectedIndexes.size(); i++) {
                     if (out.length() > 0) out.append("\n\n");
-                    out.append("[").append(idx + 1).append("] ").append(translated);
+                    out.append("[").append(selectedIndexes.get(i) + 1).append("] ").append(translated.get(i));
                 }
                 outputArea.setText(out.toString());
-            } catch (Exception ex) {
-                outputArea.setText("Translation failed: " + ex.getMessage());
             }
-        });
+            updateCacheLabel();
+        }));
+    }
+
+    // Async failures arrive wrapped in a CompletionException
+    private static String failureMessage(Throwable ex) {
+        while (ex instanceof java.util.concurrent.CompletionException && ex.getCause() != null) ex = ex.getCause();
+        return ex.getMessage();
+    }
+
+    // Hits and shared texts cost no DeepL request; delayed requests waited for the rate limiter, retried ones
+    // got a 429 or 5xx
+    private void updateCacheLabel() {
+        TranslationCache cache = deepLClient.cache();
+        RateLimiter limiter = DeepLClient.rateLimiter();
+        cacheLabel.setText("Translation cache: " + cache.hits() + " hits, " + cache.misses() + " misses, "
+                + deepLClient.coalesced() + " shared"
+                + " | DeepL: " + limiter.reservations() + " requests, " + limiter.delayed() + " delayed, "
+                + deepLClient.retries() + " retried" + (deepLClient.quotaExceeded() ? ", quota exceeded" : ""));
     }
 
     public void setDetectedBubbles(List<String> texts) {
@@ -223,6 +250,27 @@ public class TranslationPanel extends JPanel {
         bubbleList.repaint();
     }
 
+    /** Lists bubbles that are still being read; each one's text arrives later through {@link #setBubbleText}. */
+    public void startBubbles(List<Integer> originalIndices) {
+        bubbleModel.clear();
+        for (int originalIndex : originalIndices) {
+            bubbleModel.addElement(new BubbleItem(null, true, originalIndex));
+        }
+        bubbleList.repaint();
+    }
+
+    public void setBubbleText(int originalIndex, String text) {
+        // Looked up by bubble number: the user may already have dragged it elsewhere in the list
+        for (int i = 0; i < bubbleModel.size(); i++) {
+            BubbleItem item = bubbleModel.get(i);
+            if (item.originalIndex == originalIndex) {
+                item.text = text;
+                bubbleModel.set(i, item);
+                return;
+            }
+        }
+    }
+
     private static class BubbleItem implements Serializable {
         String text;
         boolean selected;
@@ -234,13 +282,13 @@ public class TranslationPanel extends JPanel {
             this.originalIndex = originalIndex;
         }
         
-        @Override public String toString() { return text; }
+        @Override public String toString() { return text != null ? text : ""; }
     }
 
     private static class BubbleRenderer extends JCheckBox implements ListCellRenderer<BubbleItem> {
         @Override
         public Component getListCellRendererComponent(JList<? extends BubbleItem> list, BubbleItem value, int index, boolean isSelected, boolean cellHasFocus) {
-            String label = value.text;
+            String label = value.text != null ? value.text : "...";
             if (label.length() > 80) label = label.substring(0, 80) + "...";
             
             // Use original index if available, otherwise fall back to sequential numbering
@@ -0,0 +1,122 @@
+# Long-lived manga-ocr worker for MangaOcrWorker.java.
+#
+# Every message in both directions is a frame: a 4-byte big-endian length, then that many bytes. The first
+# byte of a request frame is its kind, the rest its payload:
+#   P          ping, answered with "pong"
+#   G <w> <h> <pixels>
+#              recognize a w x h 8-bit grayscale image; w and h are 4-byte big-endian, the pixels are
+#              row-major without padding
+#   B <n> (<w> <h> <pixels>){n}
+#              recognize n grayscale images in one batched forward pass; n is 4-byte big-endian and each
+#              image is laid out as for G. Answered with n responses, in order, each with its own status;
+#              a payload that can't be parsed gets n errors
+#   F <path>   recognize the image file at the UTF-8 path
+#   Q          quit
+# A response frame is a status byte (O = ok, E = error) followed by UTF-8 text. The worker sends one
+# unsolicited "ready" response once the model has loaded. Frames own stdout; logs and anything printed by
+# libraries go to stderr.
+import struct
+import sys
+
+
+def read_exact(stream, n):
+    buf = b''
+    while len(buf) < n:
+        chunk = stream.read(n - len(buf))
+        if not chunk:
+            return None
+        buf += chunk
+    return buf
+
+
+def read_gray(payload, offset):
+    from PIL import Image
+    width, height = struct.unpack('>II', payload[offset:offset + 8])
+    start = offset + 8
+    end = start + width * height
+    return Image.frombytes('L', (width, height), payload[start:end]), end
+
+
+def recognize_batch(mocr, images):
+    # MangaOcr only takes one image per call; batching goes through its processor, model and tokenizer
+    # directly, the same steps its __call__ takes. If those internals ever change, recognize one by one.
+    try:
+        import torch
+        from manga_ocr.ocr import post_process
+        x = torch.stack([mocr._preprocess(img.convert('L').convert('RGB')) for img in images])
+        ids = mocr.model.generate(x.to(mocr.model.device), max_length=300).cpu()
+        texts = [post_process(mocr.tokenizer.decode(row, skip_special_tokens=True)) for row in ids]
+        return [(b'O', text) for text in texts]
+    except Exception:
+        results = []
+        for img in images:
+            try:
+                results.append((b'O', mocr(img)))
+            except Exception as e:
+                results.append((b'E', repr(e)))
+        return results
+
+
+def main():
+    inp = sys.stdin.buffer
+    out = sys.stdout.buffer
+    sys.stdout = sys.stderr
+
+    def send(status, text):
+        data = status + text.encode('utf-8')
+        out.write(struct.pack('>I', len(data)) + data)
+        out.flush()
+
+    try:
+        from PIL import Image
+        from manga_ocr import MangaOcr
+        mocr = MangaOcr()
+    except Exception as e:
+        send(b'E', 'manga-ocr failed to load: %r' % (e,))
+        return 1
+    send(b'O', 'ready')
+
+    while True:
+        header = read_exact(inp, 4)
+        if header is None:
+            return 0
+        (length,) = struct.unpack('>I', header)
+        frame = read_exact(inp, length)
+        if frame is None:
+            return 0
+        kind, payload = frame[:1], frame[1:]
+        if kind == b'Q':
+            return 0
+        if kind == b'P':
+            send(b'O', 'pong')
+            continue
+        if kind == b'B':
+            count = 1
+            try:
+                (count,) = struct.unpack('>I', payload[:4])
+                offset = 4
+                images = []
+                for _ in range(count):
+                    img, offset = read_gray(payload, offset)
+                    images.append(img)
+                results = recognize_batch(mocr, images)
+            except Exception as e:
+                results = [(b'E', repr(e))] * count
+            for status, text in results:
+                send(status, text)
+            continue
+        try:
+            if kind == b'G':
+                img, _ = read_gray(payload, 0)
+            elif kind == b'F':
+                img = Image.open(payload.decode('utf-8'))
+            else:
+                send(b'E', 'unknown request %r' % (kind,))
+                continue
+            send(b'O', mocr(img))
+        except Exception as e:
+            send(b'E', repr(e))
+
+
+if __name__ == '__main__':
+    sys.exit(main())
@@ -0,0 +1,104 @@
+package com.mangaui.services;
+
+import org.junit.jupiter.api.Test;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BubbleDetectorTest {
+    private static final int[] TYPES = {
+            BufferedImage.TYPE_INT_RGB, BufferedImage.TYPE_INT_ARGB, BufferedImage.TYPE_3BYTE_BGR,
+            BufferedImage.TYPE_4BYTE_ABGR, BufferedImage.TYPE_USHORT_565_RGB
+    };
+
+    // Serial and parallel detection must return exactly the baseline's boxes, in the same order, for every
+    // pixel layout PixelRows reads and for sub-images that don't start at the raster origin
+    @Test
+    void matchesBaselineDetector() {
+        BaselineBubbleDetector baseline = new BaselineBubbleDetector();
+        BubbleDetector serial = new BubbleDetector();
+        BubbleDetector parallel = new BubbleDetector();
+        parallel.setParallel(true);
+        for (int i = 0; i < 40; i++) {
+            Random rnd = new Random(i);
+            int width = 64 + rnd.nextInt(700);
+            int height = 64 + rnd.nextInt(600);
+            BufferedImage page = TestPages.page(i, width, height, TYPES[i % TYPES.length]);
+            if (i % 7 == 3) {
+                page = page.getSubimage(rnd.nextInt(width / 3), rnd.nextInt(height / 3), width / 2, height / 2);
+            }
+            List<Rectangle> expected = baseline.detectBubbles(page);
+            assertEquals(expected, serial.detectBubbles(page), "serial, page " + i);
+            assertEquals(expected, parallel.detectBubbles(page), "parallel, page " + i);
+        }
+    }
+
+    // The table handed out after a detection counts the detector's dark pixels, in serial and parallel mode
+    @Test
+    void darkIntegralCountsDarkPixels() {
+        BubbleDetector serial = new BubbleDetector();
+        BubbleDetector parallel = new BubbleDetector();
+        parallel.setParallel(true);
+        for (int i = 0; i < 10; i++) {
+            Random rnd = new Random(i);
+            BufferedImage page = TestPages.page(i, 64 + rnd.nextInt(700), 64 + rnd.nextInt(600), BufferedImage.TYPE_INT_RGB);
+            serial.detectBubbles(page);
+            parallel.detectBubbles(page);
+            for (int k = 0; k < 20; k++) {
+                int x = rnd.nextInt(page.getWidth());
+                int y = rnd.nextInt(page.getHeight());
+                Rectangle r = new Rectangle(x, y, 1 + rnd.nextInt(page.getWidth() - x), 1 + rnd.nextInt(page.getHeight() - y));
+                int dark = 0;
+                for (int py = r.y; py < r.y + r.height; py++) {
+                    for (int px = r.x; px < r.x + r.width; px++) {
+                        if (LuminanceKernel.isDark(page.getRGB(px, py))) dark++;
+                    }
+                }
+                assertEquals(dark, serial.darkIntegral().count(r), "serial, page " + i + ", " + r);
+                assertEquals(dark, parallel.darkIntegral().count(r), "parallel, page " + i + ", " + r);
+            }
+            assertTrue(serial.darkIntegral().count(new Rectangle(0, 0, page.getWidth(), page.getHeight())) > 0);
+        }
+    }
+
+    // On large pages coarse-to-fine mode must cover at least half of 95% of the boxes full resolution finds,
+    // and return 90% exactly. Factor 1, and images too small to reduce, are the full-resolution path itself
+    @Test
+    void pyramidKeepsFullResolutionBoxes() {
+        BubbleDetector full = new BubbleDetector();
+        for (int f : new int[] {1, 2, 4}) {
+            BubbleDetector pyramid = new BubbleDetector();
+            pyramid.setPyramidFactor(f);
+            int wanted = 0;
+            int found = 0;
+            int exact = 0;
+            for (int i = 0; i < 30; i++) {
+                Random rnd = new Random(i);
+                BufferedImage page = TestPages.page(i, 1000 + rnd.nextInt(1400), 800 + rnd.nextInt(800), BufferedImage.TYPE_INT_RGB);
+                List<Rectangle> want = full.detectBubbles(page);
+                List<Rectangle> got = pyramid.detectBubbles(page);
+                if (f == 1) assertEquals(want, got, "page " + i);
+                for (Rectangle r : want) {
+                    wanted++;
+                    if (got.contains(r)) exact++;
+                    for (Rectangle g : got) {
+                        Rectangle common = r.intersection(g);
+                        if (!common.isEmpty() && 2L * common.width * common.height >= (long) r.width * r.height) {
+                            found++;
+                            break;
+                        }
+                    }
+                }
+                BufferedImage small = TestPages.page(i, 32 * f - 1 + rnd.nextInt(40), 32 * f - 1, BufferedImage.TYPE_INT_RGB);
+                assertEquals(full.detectBubbles(small), pyramid.detectBubbles(small), "small page " + i);
+            }
+            assertTrue(found >= wanted * 0.95, "f=" + f + ": found " + found + " of " + wanted);
+            assertTrue(exact >= wanted * 0.9, "f=" + f + ": exact " + exact + " of " + wanted);
+        }
+    }
+}
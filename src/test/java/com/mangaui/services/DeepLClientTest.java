@@ -0,0 +1,118 @@
+package com.mangaui.services;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DeepLClientTest {
+    // A request takes at most 50 texts, however short
+    @Test
+    void batchHoldsFiftyTexts() {
+        DeepLClient.Batch batch = new DeepLClient.Batch();
+        for (int i = 0; i < 50; i++) {
+            assertTrue(batch.fits("text=" + i), "text " + i);
+            batch.add("k" + i, "text=" + i, new CompletableFuture<>());
+        }
+        assertFalse(batch.fits("text=x"));
+    }
+
+    // The body, parameters joined by '&' plus the target language, stays within 128 KB. A single text larger
+    // than that still goes out alone, for DeepL to refuse rather than never being sent
+    @Test
+    void batchStaysWithinRequestSize() {
+        String param = "text=" + "a".repeat(40 * 1024);
+        DeepLClient.Batch batch = new DeepLClient.Batch();
+        for (int i = 0; i < 3; i++) {
+            assertTrue(batch.fits(param), "text " + i);
+            batch.add("k" + i, param, new CompletableFuture<>());
+        }
+        assertFalse(batch.fits(param));
+        assertEquals(String.join("&", batch.params).length() + "&target_lang=EN".length(), batch.bytes);
+        assertTrue(batch.bytes <= 128 * 1024);
+
+        String rest = "text=" + "b".repeat(128 * 1024 - batch.bytes - "text=".length() - 1);
+        assertTrue(batch.fits(rest));
+        assertFalse(batch.fits(rest + "b"));
+
+        DeepLClient.Batch alone = new DeepLClient.Batch();
+        assertTrue(alone.fits("text=" + "c".repeat(200 * 1024)));
+    }
+
+    // A DEEPL_API_URL that is not a URL fails every translation with a message naming it, rather than a
+    // parse error out of the HTTP client on each request
+    @Test
+    void rejectsMalformedApiUrl(@TempDir Path dir) {
+        DeepLClient client = new DeepLClient(new TranslationCache(100, dir.resolve("translation-cache.tsv")), "api.deepl.com/v2/translate");
+        ExecutionException e = assertThrows(ExecutionException.class,
+                () -> client.translateBatchAsync(List.of("hello")).get(5, TimeUnit.SECONDS));
+        assertInstanceOf(IllegalStateException.class, e.getCause());
+        assertTrue(e.getCause().getMessage().contains("api.deepl.com/v2/translate"));
+    }
+
+    // A request that fails before it is sent, here on an API key OkHttp won't put in a header, must fail
+    // its texts and free their keys: a later call for the same text sends its own request instead of
+    // waiting forever on the dead one
+    @Test
+    void failedSendFreesInFlightKeys(@TempDir Path dir) throws Exception {
+        DeepLClient client = new DeepLClient(new TranslationCache(100, dir.resolve("translation-cache.tsv")), "http://127.0.0.1:1/v2/translate");
+        try {
+            System.setProperty("DEEPL_API_KEY", "key\u00e9");
+            ExecutionException first = assertThrows(ExecutionException.class,
+                    () -> client.translateBatchAsync(List.of("hello", "world")).get(5, TimeUnit.SECONDS));
+            assertInstanceOf(IllegalArgumentException.class, first.getCause());
+
+            System.setProperty("DEEPL_API_KEY", "key");
+            ExecutionException second = assertThrows(ExecutionException.class,
+                    () -> client.translateBatchAsync(List.of("hello")).get(5, TimeUnit.SECONDS));
+            assertInstanceOf(IOException.class, second.getCause());
+        } finally {
+            System.clearProperty("DEEPL_API_KEY");
+        }
+    }
+
+    // Without Retry-After: exponential backoff from 500 ms, capped at 30 s, plus up to half of it as jitter
+    @Test
+    void retryDelayBacksOff() {
+        for (int i = 0; i < 20; i++) {
+            assertBetween(500, 750, DeepLClient.retryDelayMs(0, null));
+            assertBetween(4000, 6000, DeepLClient.retryDelayMs(3, null));
+            assertBetween(30_000, 45_000, DeepLClient.retryDelayMs(10, null));
+            assertBetween(30_000, 45_000, DeepLClient.retryDelayMs(100, null));
+        }
+    }
+
+    // Retry-After in seconds or as an HTTP date replaces the backoff; a date in the past or a negative
+    // value means now, and a value that is neither keeps the backoff
+    @Test
+    void retryDelayFollowsRetryAfter() {
+        String date = DateTimeFormatter.RFC_1123_DATE_TIME.format(ZonedDateTime.now(ZoneOffset.UTC).plusSeconds(20));
+        String past = DateTimeFormatter.RFC_1123_DATE_TIME.format(ZonedDateTime.now(ZoneOffset.UTC).minusMinutes(5));
+        for (int i = 0; i < 20; i++) {
+            assertBetween(3000, 4500, DeepLClient.retryDelayMs(5, "3"));
+            assertBetween(3000, 4500, DeepLClient.retryDelayMs(5, " 3 "));
+            assertBetween(18_000, 30_000, DeepLClient.retryDelayMs(0, date));
+            assertEquals(0, DeepLClient.retryDelayMs(3, past));
+            assertEquals(0, DeepLClient.retryDelayMs(3, "-5"));
+            assertBetween(2000, 3000, DeepLClient.retryDelayMs(2, "soon"));
+        }
+    }
+
+    private static void assertBetween(long min, long max, long actual) {
+        assertTrue(actual >= min && actual <= max, actual + " not in [" + min + ", " + max + "]");
+    }
+}
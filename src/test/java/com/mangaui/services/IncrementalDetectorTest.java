@@ -0,0 +1,85 @@
+package com.mangaui.services;
+
+import org.junit.jupiter.api.Test;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+
+class IncrementalDetectorTest {
+    // After a random edit the incremental result must be the boxes a full detection finds, whatever the edit:
+    // a word dropped on the background, a new bubble, or an area painted over
+    @Test
+    void matchesFullDetectionAfterEdits() {
+        BubbleDetector full = new BubbleDetector();
+        for (int i = 0; i < 60; i++) {
+            Random rnd = new Random(i);
+            int width = 200 + rnd.nextInt(1100);
+            int height = 200 + rnd.nextInt(1000);
+            BufferedImage before = TestPages.page(i, width, height, BufferedImage.TYPE_INT_RGB);
+            BufferedImage after = TestPages.copy(before);
+            Rectangle edit = edit(after, rnd, i % 3);
+
+            IncrementalDetector incremental = new IncrementalDetector();
+            incremental.detect(before);
+            List<Rectangle> got = incremental.detect(after);
+            List<Rectangle> want = full.detectBubbles(after);
+            assertEquals(new HashSet<>(want), new HashSet<>(got), "page " + i + ", edit " + edit);
+        }
+    }
+
+    // Changes that keep each row's pixel sum and position-weighted sum must still be seen
+    @Test
+    void hashSeesBalancedRowChanges() {
+        BufferedImage before = TestPages.page(1, 256, 128, BufferedImage.TYPE_INT_RGB);
+        BufferedImage after = TestPages.copy(before);
+        int y = 40;
+        for (int x = 100; x < 103; x++) after.setRGB(x, y, 0x808080);
+        before.setRGB(100, y, 0x808080 + 0x010101);
+        before.setRGB(101, y, 0x808080 - 0x020202);
+        before.setRGB(102, y, 0x808080 + 0x010101);
+
+        IncrementalDetector incremental = new IncrementalDetector();
+        incremental.detect(before);
+        incremental.detect(after);
+        assertNotEquals(0, incremental.lastDirtyTiles());
+    }
+
+    private static Rectangle edit(BufferedImage image, Random rnd, int kind) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        Graphics2D g = image.createGraphics();
+        Rectangle r;
+        if (kind == 0) {
+            r = new Rectangle(rnd.nextInt(width - 40), rnd.nextInt(height - 16), 40, 16);
+            g.setColor(new Color(image.getRGB(r.x, r.y)));
+            g.fillRect(r.x, r.y, r.width, r.height);
+            g.setColor(Color.BLACK);
+            g.setFont(new Font("Dialog", Font.BOLD, 14));
+            g.drawString("abc", r.x + 4, r.y + 13);
+        } else if (kind == 1) {
+            r = new Rectangle(0, 0, 80 + rnd.nextInt(120), 60 + rnd.nextInt(120));
+            r.setLocation(rnd.nextInt(width - r.width), rnd.nextInt(height - r.height));
+            g.setColor(Color.WHITE);
+            g.fillOval(r.x, r.y, r.width, r.height);
+            g.setColor(Color.BLACK);
+            g.setFont(new Font("Dialog", Font.BOLD, 18));
+            for (int l = 0; l < 3; l++) g.drawString("NEW TEXT " + l, r.x + r.width / 5, r.y + r.height / 3 + l * 18);
+        } else {
+            r = new Rectangle(0, 0, Math.min(width - 1, 20 + rnd.nextInt(250)), 20 + rnd.nextInt(120));
+            r.setLocation(rnd.nextInt(width - r.width), rnd.nextInt(height - r.height));
+            g.setColor(new Color(image.getRGB(r.x, r.y)));
+            g.fillRect(r.x, r.y, r.width, r.height);
+        }
+        g.dispose();
+        return r;
+    }
+}
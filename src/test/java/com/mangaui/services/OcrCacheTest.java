@@ -0,0 +1,31 @@
+package com.mangaui.services;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class OcrCacheTest {
+    // A crash mid-append leaves a torn last line. It must not load as a partial text, and the next append
+    // must not be glued onto it
+    @Test
+    void dropsTornLastLine(@TempDir Path dir) throws Exception {
+        Path log = dir.resolve("ocr-cache.tsv");
+        Files.write(log, "a\tfirst\nb\tsecond\nc\tthi".getBytes(StandardCharsets.UTF_8));
+
+        OcrCache cache = new OcrCache(100, log);
+        assertEquals("second", cache.get("b"));
+        assertNull(cache.get("c"));
+        cache.put("d", "fourth");
+
+        OcrCache reopened = new OcrCache(100, log);
+        assertEquals("first", reopened.get("a"));
+        assertNull(reopened.get("c"));
+        assertEquals("fourth", reopened.get("d"));
+    }
+}
@@ -0,0 +1,57 @@
+package com.mangaui.services;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RateLimiterTest {
+    // The burst goes right away; each slot after it starts one interval after the previous one
+    @Test
+    void burstThenSpacedSlots() {
+        RateLimiter limiter = new RateLimiter(1, 3);
+        for (int i = 0; i < 3; i++) assertEquals(0, limiter.reserve(), "slot " + i);
+        long first = limiter.reserve();
+        long second = limiter.reserve();
+        assertTrue(first > 800 && first <= 1000, "first wait " + first);
+        assertTrue(second > 1800 && second <= 2000, "second wait " + second);
+        assertEquals(5, limiter.reservations());
+        assertEquals(2, limiter.delayed());
+        assertEquals(first + second, limiter.delayedMs());
+        assertTrue(limiter.available() < -1);
+    }
+
+    // Tokens come back at the configured rate while nobody reserves, up to the burst and no further
+    @Test
+    void refillsUpToBurst() throws Exception {
+        RateLimiter limiter = new RateLimiter(50, 2);
+        limiter.reserve();
+        limiter.reserve();
+        assertTrue(limiter.reserve() > 0);
+        Thread.sleep(200);
+        assertEquals(2.0, limiter.available());
+        assertEquals(0, limiter.reserve());
+        assertEquals(0, limiter.reserve());
+        assertTrue(limiter.reserve() > 0);
+    }
+
+    // A pause holds back even slots the bucket has tokens for; a shorter pause does not cut a longer one
+    @Test
+    void pauseDelaysSlots() {
+        RateLimiter limiter = new RateLimiter(100, 10);
+        limiter.pause(500);
+        long wait = limiter.reserve();
+        assertTrue(wait > 400 && wait <= 500, "wait " + wait);
+        limiter.pause(50);
+        wait = limiter.reserve();
+        assertTrue(wait > 300 && wait <= 500, "wait after shorter pause " + wait);
+        assertEquals(2, limiter.pauses());
+    }
+
+    @Test
+    void rejectsNonPositiveLimits() {
+        assertThrows(IllegalArgumentException.class, () -> new RateLimiter(0, 1));
+        assertThrows(IllegalArgumentException.class, () -> new RateLimiter(1, 0));
+    }
+}
@@ -0,0 +1,61 @@
+package com.mangaui.services;
+
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.Random;
+
+/** Synthetic manga-like pages: a tinted background, shaded panels, frames, text bubbles and speckle. */
+final class TestPages {
+    private TestPages() {}
+
+    static BufferedImage page(long seed, int width, int height, int type) {
+        Random rnd = new Random(seed);
+        BufferedImage img = new BufferedImage(width, height, type);
+        Graphics2D g = img.createGraphics();
+        g.setColor(new Color(200 + rnd.nextInt(56), 200 + rnd.nextInt(56), 200 + rnd.nextInt(56)));
+        g.fillRect(0, 0, width, height);
+        for (int i = 0; i < 6; i++) {
+            g.setColor(new Color(rnd.nextInt(256), rnd.nextInt(256), rnd.nextInt(256)));
+            g.fillRect(rnd.nextInt(width), rnd.nextInt(height), rnd.nextInt(width / 3 + 1), rnd.nextInt(height / 3 + 1));
+        }
+        g.setColor(Color.BLACK);
+        g.setStroke(new BasicStroke(3));
+        for (int i = 0; i < 4; i++) {
+            g.drawRect(rnd.nextInt(width / 2), rnd.nextInt(height / 2), rnd.nextInt(width / 2) + 10, rnd.nextInt(height / 2) + 10);
+        }
+        int bubbles = 3 + rnd.nextInt(12);
+        g.setFont(new Font("Dialog", Font.BOLD, 14 + rnd.nextInt(10)));
+        for (int i = 0; i < bubbles; i++) {
+            int bw = 60 + rnd.nextInt(200);
+            int bh = 40 + rnd.nextInt(200);
+            int bx = rnd.nextInt(Math.max(1, width - bw));
+            int by = rnd.nextInt(Math.max(1, height - bh));
+            g.setColor(Color.WHITE);
+            g.fillOval(bx, by, bw, bh);
+            g.setColor(Color.BLACK);
+            g.setStroke(new BasicStroke(2));
+            g.drawOval(bx, by, bw, bh);
+            for (int l = 0; l < 4; l++) {
+                g.drawString("WXYZ ABC " + rnd.nextInt(999), bx + bw / 5, by + bh / 3 + l * 18);
+            }
+        }
+        for (int i = 0; i < 300; i++) {
+            g.setColor(rnd.nextBoolean() ? Color.BLACK : Color.WHITE);
+            g.fillRect(rnd.nextInt(width), rnd.nextInt(height), 1 + rnd.nextInt(4), 1 + rnd.nextInt(4));
+        }
+        g.dispose();
+        return img;
+    }
+
+    /** A copy of {@code image} as TYPE_INT_RGB, for edits that must not touch the original. */
+    static BufferedImage copy(BufferedImage image) {
+        BufferedImage out = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = out.createGraphics();
+        g.drawImage(image, 0, 0, null);
+        g.dispose();
+        return out;
+    }
+}
@@ -0,0 +1,119 @@
+package com.mangaui.services;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TranslationCacheTest {
+    // Opening the log replays it: a key written twice answers with its later line, and texts with tabs and
+    // newlines come back as they were put
+    @Test
+    void replaysLogLaterLinesWin(@TempDir Path dir) throws Exception {
+        Path log = dir.resolve("translation-cache.tsv");
+        Files.write(log, "a\told\nb\tsecond\na\tnew\n".getBytes(StandardCharsets.UTF_8));
+
+        TranslationCache cache = new TranslationCache(100, log);
+        assertEquals("new", cache.get("a"));
+        assertEquals("second", cache.get("b"));
+        assertEquals(2, cache.size());
+        cache.put("c", "tab\there\nline two\\");
+
+        TranslationCache reopened = new TranslationCache(100, log);
+        assertEquals("new", reopened.get("a"));
+        assertEquals("tab\there\nline two\\", reopened.get("c"));
+        assertNull(reopened.get("d"));
+        assertEquals(2, reopened.hits());
+        assertEquals(2, reopened.storeHits());
+        assertEquals(1, reopened.misses());
+    }
+
+    // A crash mid-append leaves a torn last line. It must not load as a partial text, and the next append
+    // must not be glued onto it
+    @Test
+    void dropsTornLastLine(@TempDir Path dir) throws Exception {
+        Path log = dir.resolve("translation-cache.tsv");
+        Files.write(log, "a\tfirst\nb\tsecond\nc\tthi".getBytes(StandardCharsets.UTF_8));
+
+        TranslationCache cache = new TranslationCache(100, log);
+        assertEquals("second", cache.get("b"));
+        assertNull(cache.get("c"));
+        cache.put("d", "fourth");
+
+        TranslationCache reopened = new TranslationCache(100, log);
+        assertEquals("first", reopened.get("a"));
+        assertNull(reopened.get("c"));
+        assertEquals("fourth", reopened.get("d"));
+        assertEquals(3, reopened.size());
+    }
+
+    // Once superseded lines are half of a large log it is rewritten with only the newest line per key, and
+    // reads from memory and from disk keep answering with the latest translation throughout
+    @Test
+    void compactsSupersededLines(@TempDir Path dir) throws Exception {
+        Path log = dir.resolve("translation-cache.tsv");
+        TranslationCache cache = new TranslationCache(50, log);
+        for (int round = 0; round < 3; round++) {
+            for (int i = 0; i < 600; i++) cache.put("k" + i, "v" + round + "-" + i);
+            for (int i = 0; i < 600; i += 37) assertEquals("v" + round + "-" + i, cache.get("k" + i));
+        }
+        assertEquals(600, cache.size());
+        long lines = Files.readAllLines(log, StandardCharsets.UTF_8).size();
+        assertTrue(lines < 3 * 600, "log not compacted: " + lines + " lines");
+        assertTrue(Files.notExists(dir.resolve("translation-cache.tsv.tmp")));
+
+        TranslationCache reopened = new TranslationCache(50, log);
+        assertEquals(600, reopened.size());
+        for (int i = 0; i < 600; i++) assertEquals("v2-" + i, reopened.get("k" + i));
+    }
+
+    // Keys evicted from memory are read back from the log and count as store hits. Putting the same text
+    // again does not grow the log
+    @Test
+    void readsEvictedKeysFromLog(@TempDir Path dir) throws Exception {
+        Path log = dir.resolve("translation-cache.tsv");
+        TranslationCache cache = new TranslationCache(2, log);
+        cache.put("a", "1");
+        cache.put("b", "2");
+        cache.put("c", "3");
+        cache.put("c", "3");
+        assertEquals(3, Files.readAllLines(log, StandardCharsets.UTF_8).size());
+
+        assertEquals("3", cache.get("c"));
+        assertEquals(0, cache.storeHits());
+        assertEquals("1", cache.get("a"));
+        assertEquals(1, cache.storeHits());
+        assertEquals(2, cache.hits());
+    }
+
+    // Without a log the cache is an LRU map of maxEntries
+    @Test
+    void memoryOnlyWithoutLog() {
+        TranslationCache cache = new TranslationCache(2, null);
+        cache.put("a", "1");
+        cache.put("b", "2");
+        cache.put("c", "3");
+        assertEquals(2, cache.size());
+        assertNull(cache.get("a"));
+        assertEquals("3", cache.get("c"));
+    }
+
+    // OCR output of one line varies in width forms and whitespace; those share a key, languages and
+    // formality don't
+    @Test
+    void keyNormalizesText() {
+        String key = TranslationCache.key("ＡＢＣ　１２３", "auto", "EN", "default");
+        assertEquals(key, TranslationCache.key("  ABC\n 123 ", "auto", "EN", "default"));
+        assertEquals(key, TranslationCache.key("ABC\t\t123", "auto", "EN", "default"));
+        assertNotEquals(key, TranslationCache.key("ABC 123", "JA", "EN", "default"));
+        assertNotEquals(key, TranslationCache.key("ABC 123", "auto", "EN", "more"));
+        assertNotEquals(key, TranslationCache.key("ABC123", "auto", "EN", "default"));
+    }
+}
@@ -0,0 +1,66 @@
+package com.mangaui.services;
+
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * {@link LuminanceKernel} on the incubating Vector API, compiled only by the {@code vector} Maven profile. Only
+ * loaded reflectively by {@link LuminanceKernel#best()} when the class and the module are present, so the app
+ * still runs without them.
+ */
+final class VectorLuminanceKernel implements LuminanceKernel {
+    private static final VectorSpecies<Integer> SPECIES = IntVector.SPECIES_PREFERRED;
+    private static final IntVector BYTE = IntVector.broadcast(SPECIES, 0xFF);
+    private static final IntVector W_R = IntVector.broadcast(SPECIES, WEIGHT_R);
+    private static final IntVector W_G = IntVector.broadcast(SPECIES, WEIGHT_G);
+    private static final IntVector W_B = IntVector.broadcast(SPECIES, WEIGHT_B);
+    private static final IntVector DARK = IntVector.broadcast(SPECIES, DARK_LIMIT);
+    private static final IntVector LIGHT = IntVector.broadcast(SPECIES, LIGHT_LIMIT);
+
+    @Override
+    public void classify(int[] rgb, int len, long[] dark, long[] light) {
+        int lanes = SPECIES.length();
+        for (int w = 0, base = 0; base < len; w++, base += 64) {
+            int end = Math.min(len, base + 64);
+            long d = 0;
+            long l = 0;
+            int i = base;
+            // Lane counts are powers of two up to 16, so a vector never straddles two 64-bit words
+            for (; i + lanes <= end; i += lanes) {
+                IntVector px = IntVector.fromArray(SPECIES, rgb, i);
+                IntVector r = px.lanewise(VectorOperators.LSHR, 16).and(BYTE);
+                IntVector g = px.lanewise(VectorOperators.LSHR, 8).and(BYTE);
+                IntVector b = px.and(BYTE);
+                IntVector s = r.mul(W_R).add(g.mul(W_G)).add(b.mul(W_B));
+                long dm = s.compare(VectorOperators.LT, DARK).toLong();
+                long lm = s.compare(VectorOperators.GE, LIGHT).toLong();
+                VectorMask<Integer> edge = s.eq(DARK).or(s.eq(LIGHT));
+                if (edge.anyTrue()) {
+                    long e = edge.toLong();
+                    while (e != 0) {
+                        int lane = Long.numberOfTrailingZeros(e);
+                        e &= e - 1;
+                        int lum = LuminanceKernel.exactLuminance(rgb[i + lane]);
+                        dm = lum <= DARK_MAX ? dm | (1L << lane) : dm & ~(1L << lane);
+                        lm = lum >= LIGHT_MIN ? lm | (1L << lane) : lm & ~(1L << lane);
+                    }
+                }
+                d |= dm << (i - base);
+                l |= lm << (i - base);
+            }
+            for (; i < end; i++) {
+                if (LuminanceKernel.isDark(rgb[i])) d |= 1L << i;
+                if (LuminanceKernel.isLight(rgb[i])) l |= 1L << i;
+            }
+            dark[w] = d;
+            light[w] = l;
+        }
+    }
+
+    @Override
+    public String name() {
+        return "vector-" + SPECIES.length() + "x32";
+    }
+}